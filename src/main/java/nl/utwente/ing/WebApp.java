@@ -1,16 +1,22 @@
 package nl.utwente.ing;
 
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
+import nl.utwente.ing.database.SchemaMigrations;
+import nl.utwente.ing.database.SessionRegistry;
 
 import static org.springframework.boot.SpringApplication.*;
 
 @SpringBootApplication
+@EnableScheduling
 public class WebApp {
 
     public static void main(String[] args) {
-        DatabaseCommunication.generateTables();
+        SchemaMigrations.migrate();
+        IdAllocator.seedAll();
+        SessionRegistry.load();
         run(WebApp.class, args);
     }
 }
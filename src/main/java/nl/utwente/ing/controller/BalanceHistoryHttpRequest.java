@@ -7,6 +7,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @RestController
 @RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
 public class BalanceHistoryHttpRequest {
@@ -18,11 +24,6 @@ public class BalanceHistoryHttpRequest {
     public void invalidInput() {}
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
-    @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
-
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
@@ -46,37 +47,53 @@ public class BalanceHistoryHttpRequest {
 
     //GET
     @RequestMapping(value = "/balance/history", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public History getBalanceHistory(@RequestParam(value = "interval", required = false, defaultValue = "month") String interval,
+    public List<History> getBalanceHistory(@RequestParam(value = "interval", required = false, defaultValue = "month") String interval,
                                      @RequestParam(value = "intervals", required = false, defaultValue = "24") String intervals,
-                                     @RequestParam(value = "session_id", required = false) String sessionId,
-                                     @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
+                                     @SessionId int sessionId) {
+        if (!checkInterval(interval)) {
+            throw new InvalidInputException();
         }
 
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
+        if (Integer.parseInt(intervals) <= 0 || Integer.parseInt(intervals) > 200) {
+            throw new InvalidInputException();
         }
 
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
+        return DatabaseCommunication.getBalanceHistory(sessionId,
+                Interval.valueOf(interval), Integer.parseInt(intervals));
+    }
 
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
+    //----------------- Balance ----------------
 
-        if (!checkInterval(interval)) {
+    private LocalDateTime parseDate(String date) {
+        try {
+            return LocalDateTime.parse(date.replace("Z", ""));
+        } catch (DateTimeParseException e) {
             throw new InvalidInputException();
         }
+    }
 
-        if (Integer.parseInt(intervals) <= 0 || Integer.parseInt(intervals) > 200) {
+    //GET
+    @RequestMapping(value = "/balance", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Object> getBalance(@RequestParam(value = "at", required = false) String at,
+                                          @SessionId int sessionId) {
+        LocalDateTime date = at == null ? LocalDateTime.now() : parseDate(at);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("at", date.toString());
+        result.put("balance", DatabaseCommunication.getBalanceAt(sessionId, date));
+        return result;
+    }
+
+    //GET
+    @RequestMapping(value = "/balance/range", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Double> getBalanceRange(@RequestParam(value = "from") String from,
+                                               @RequestParam(value = "to", required = false) String to,
+                                               @SessionId int sessionId) {
+        LocalDateTime start = parseDate(from);
+        LocalDateTime end = to == null ? LocalDateTime.now() : parseDate(to);
+        if (end.isBefore(start)) {
             throw new InvalidInputException();
         }
 
-        return DatabaseCommunication.getBalanceHistory(Integer.parseInt(sessionId),
-                interval, Integer.parseInt(intervals));
+        return DatabaseCommunication.getBalanceRange(sessionId, start, end);
     }
 }
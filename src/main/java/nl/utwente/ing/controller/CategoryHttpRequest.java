@@ -1,6 +1,7 @@
 package nl.utwente.ing.controller;
 
 import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
 import nl.utwente.ing.model.Category;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -22,11 +23,6 @@ public class CategoryHttpRequest {
     public void invalidInput() {}
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
-    @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
-
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
@@ -41,59 +37,20 @@ public class CategoryHttpRequest {
 
     // GET
     @RequestMapping(value = "/categories", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public List<Category> getCategories(
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        return DatabaseCommunication.getAllCategories(Integer.parseInt(sessionId));
+    public List<Category> getCategories(@SessionId int sessionId) {
+        return DatabaseCommunication.getAllCategories(sessionId);
     }
 
     // POST
     @RequestMapping(method = RequestMethod.POST, value = "/categories", produces = "application/json", consumes = "*")
     public ResponseEntity<Category> addCategory(
             @RequestBody String category,
-            @RequestParam(value="session_id", required = false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
+            @SessionId int sessionId) {
         if (category.isEmpty()) {
             throw new InvalidInputException();
         }
 
-        int newId = DatabaseCommunication.getLastCategoryIndex() + 1;
+        int newId = IdAllocator.CATEGORIES.next();
         JSONObject jsonCategory = new JSONObject(category);
 
         if (!jsonCategory.has("name")) {
@@ -107,8 +64,7 @@ public class CategoryHttpRequest {
         }
 
         //Add the category id to the session
-        DatabaseCommunication.addCategoryId(Integer.parseInt(sessionId), c.getId());
-        DatabaseCommunication.addCategory(c);
+        DatabaseCommunication.addCategory(c, sessionId);
 
         return new ResponseEntity<>(c, HttpStatus.CREATED);
     }
@@ -117,27 +73,8 @@ public class CategoryHttpRequest {
     @RequestMapping(value = "/categories/{id}", method = RequestMethod.GET, produces = "application/json", consumes = "*")
     public Category getCategory(
             @PathVariable int id,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        Category category = DatabaseCommunication.getCategory(id, Integer.parseInt(sessionId));
+            @SessionId int sessionId) {
+        Category category = DatabaseCommunication.getCategory(id, sessionId);
         if (category == null) {
             throw new ItemNotFound();
         }
@@ -149,27 +86,8 @@ public class CategoryHttpRequest {
     @RequestMapping(method = RequestMethod.PUT, value = "/categories/{id}", produces = "application/json", consumes = "*")
     public ResponseEntity<Category> putCategory(
             @RequestBody String category ,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @PathVariable int id,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
+            @SessionId int sessionId,
+            @PathVariable int id) {
         JSONObject jsonCategory;
 
         try {
@@ -188,13 +106,13 @@ public class CategoryHttpRequest {
             throw new InvalidInputException();
         }
 
-        if (DatabaseCommunication.getCategory(id, Integer.parseInt(sessionId)) == null) {
+        if (DatabaseCommunication.getCategory(id, sessionId) == null) {
             throw new ItemNotFound();
         }
 
-        DatabaseCommunication.updateCategory(c, id, Integer.parseInt(sessionId));
+        DatabaseCommunication.updateCategory(c, id, sessionId);
 
-        return new ResponseEntity<>(DatabaseCommunication.getCategory(id, Integer.parseInt(sessionId)), HttpStatus.OK);
+        return new ResponseEntity<>(DatabaseCommunication.getCategory(id, sessionId), HttpStatus.OK);
     }
 
     // DELETE
@@ -202,32 +120,12 @@ public class CategoryHttpRequest {
     @RequestMapping(method = RequestMethod.DELETE, value = "/categories/{id}", produces = "application/json", consumes = "*")
     public ResponseEntity deleteCategory(
             @PathVariable int id,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        if (DatabaseCommunication.getCategory(id, Integer.parseInt(sessionId)) == null) {
+            @SessionId int sessionId) {
+        if (DatabaseCommunication.getCategory(id, sessionId) == null) {
             throw new ItemNotFound();
         }
 
-        DatabaseCommunication.deleteCategory(id, Integer.parseInt(sessionId));
-        // Remove it from the sessions
-        DatabaseCommunication.deleteCategoryId(Integer.parseInt(sessionId), id);
+        DatabaseCommunication.deleteCategory(id, sessionId);
 
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
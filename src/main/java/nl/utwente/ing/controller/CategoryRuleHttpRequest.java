@@ -1,6 +1,8 @@
 package nl.utwente.ing.controller;
 
+import nl.utwente.ing.database.CategoryRuleJobs;
 import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
 import nl.utwente.ing.model.CategoryRule;
 import nl.utwente.ing.model.TransactionType;
 import org.json.JSONObject;
@@ -10,6 +12,7 @@ import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
@@ -29,6 +32,14 @@ public class CategoryRuleHttpRequest {
         return false;
     }
 
+    private int parseId(String categoryRuleId) {
+        try {
+            return Integer.parseInt(categoryRuleId);
+        } catch (NumberFormatException e) {
+            throw new ItemNotFound();
+        }
+    }
+
     // ---------------- Exception handling --------------------
     @ResponseStatus(value=HttpStatus.METHOD_NOT_ALLOWED,
             reason="Invalid input given")  // 405
@@ -36,11 +47,6 @@ public class CategoryRuleHttpRequest {
     public void invalidInput() {}
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
-    @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
-
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
@@ -54,89 +60,43 @@ public class CategoryRuleHttpRequest {
     // ---------------- Category Rules -----------------
     //GET
     @RequestMapping(value = "/categoryRules", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public List<CategoryRule> getCategoryRules(
-            @RequestParam(value = "session_id", required = false) String sessionId,
-            @RequestHeader (value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-
-        return DatabaseCommunication.getAllCategoryRules(Integer.parseInt(sessionId));
+    public List<CategoryRule> getCategoryRules(@SessionId int sessionId) {
+        return DatabaseCommunication.getAllCategoryRules(sessionId);
     }
 
     //GET
     @RequestMapping (value = "/categoryRules/{categoryRuleId}", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public CategoryRule getCategoryRule(@RequestParam(value = "session_id", required = false) String sessionId,
-                                        @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
+    public CategoryRule getCategoryRule(@SessionId int sessionId,
                                         @PathVariable("categoryRuleId") String categoryRuleId) {
-        int id = Integer.parseInt(categoryRuleId);
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
+        int id = parseId(categoryRuleId);
 
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
+        if (DatabaseCommunication.getCategoryRules(id, sessionId) == null) {
+            throw new ItemNotFound();
         }
 
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
+        return DatabaseCommunication.getCategoryRules(id, sessionId);
+    }
 
-        if (DatabaseCommunication.getCategoryRules(id, Integer.parseInt(sessionId)) == null) {
+    //GET
+    @RequestMapping (value = "/categoryRules/{categoryRuleId}/progress", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Object> getCategoryRuleProgress(@SessionId int sessionId,
+                                                       @PathVariable("categoryRuleId") String categoryRuleId) {
+        int id = parseId(categoryRuleId);
+        CategoryRule cr = DatabaseCommunication.getCategoryRules(id, sessionId);
+        if (cr == null) {
             throw new ItemNotFound();
         }
-
-        return DatabaseCommunication.getCategoryRules(id, Integer.parseInt(sessionId));
+        return CategoryRuleJobs.getProgress(cr, sessionId);
     }
 
     //POST
     @RequestMapping (value = "/categoryRules", method = RequestMethod.POST, produces = "application/json", consumes = "*")
     public ResponseEntity<CategoryRule> addCategoryRule(@RequestBody String categoryRule,
-                                                        @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
-                                                        @RequestParam(value = "session_id", required = false) String sessionId) {
-
+                                                        @SessionId int sessionId) {
         if (categoryRule.isEmpty()) {
             throw new InvalidInputException();
         }
 
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
         JSONObject jsonCategoryRule = new JSONObject(categoryRule);
 
         if (!correctJsonCategoryRule(jsonCategoryRule)) {
@@ -147,15 +107,14 @@ public class CategoryRuleHttpRequest {
             throw new InvalidInputException();
         }
 
-        int newID = DatabaseCommunication.getLastCategoryRuleID() + 1;
+        int newID = IdAllocator.CATEGORY_RULES.next();
         String description = jsonCategoryRule.getString("description");
         String IBAN = jsonCategoryRule.getString("IBAN");
         String type = jsonCategoryRule.getString("type");
         int categoryId = jsonCategoryRule.getInt("categoryId");
         CategoryRule cr = new CategoryRule(newID, description, IBAN, type, categoryId);
 
-        DatabaseCommunication.addCategoryRulesId(Integer.parseInt(sessionId), newID);
-        DatabaseCommunication.addCategoryRule(cr, Integer.parseInt(sessionId));
+        DatabaseCommunication.addCategoryRule(cr, sessionId);
 
         return new ResponseEntity<>(cr, HttpStatus.CREATED);
     }
@@ -163,32 +122,14 @@ public class CategoryRuleHttpRequest {
     //PUT
     @RequestMapping (value = "/categoryRules/{categoryRuleId}", method = RequestMethod.PUT, produces = "application/json")
     public ResponseEntity<CategoryRule> putCategoryRule(@RequestBody String categoryRule,
-                                                        @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
-                                                        @RequestParam(value = "session_id", required = false) String sessionId,
+                                                        @SessionId int sessionId,
                                                         @PathVariable("categoryRuleId") String categoryRuleId) {
-        int id = Integer.parseInt(categoryRuleId);
+        int id = parseId(categoryRuleId);
         if (categoryRule.isEmpty()) {
 
             throw new InvalidInputException();
         }
 
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
         JSONObject jsonCategoryRule = new JSONObject(categoryRule);
 
         if (!correctJsonCategoryRule(jsonCategoryRule)) {
@@ -205,40 +146,21 @@ public class CategoryRuleHttpRequest {
         int categoryId = jsonCategoryRule.getInt("categoryId");
         CategoryRule cr = new CategoryRule(id, description, IBAN, type, categoryId);
 
-        DatabaseCommunication.updateCategoryRule(id, cr, Integer.parseInt(sessionId));
-        return new ResponseEntity<>(DatabaseCommunication.getCategoryRules(id, Integer.parseInt(sessionIDHeader)), HttpStatus.OK);
+        DatabaseCommunication.updateCategoryRule(id, cr, sessionId);
+        return new ResponseEntity<>(DatabaseCommunication.getCategoryRules(id, sessionId), HttpStatus.OK);
     }
 
     //DELETE
     @SuppressWarnings("rawtyper")
     @RequestMapping(value = "/categoryRules/{categoryRuleId}", method = RequestMethod.DELETE, produces = "application/json", consumes = "*")
-    public ResponseEntity deleteCategoyRule(@RequestParam(value = "session_id", required = false) String sessionId,
-                                            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
+    public ResponseEntity deleteCategoyRule(@SessionId int sessionId,
                                             @PathVariable("categoryRuleId") String categoryRuleId) {
-        int id = Integer.parseInt(categoryRuleId);
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        if (DatabaseCommunication.getCategoryRules(id, Integer.parseInt(sessionId)) == null) {
+        int id = parseId(categoryRuleId);
+        if (DatabaseCommunication.getCategoryRules(id, sessionId) == null) {
             throw new ItemNotFound();
         }
 
-        DatabaseCommunication.deleteCategoryRule(id, Integer.parseInt(sessionId));
-        DatabaseCommunication.deleteCategoryRulesId(id, Integer.parseInt(sessionId));
+        DatabaseCommunication.deleteCategoryRule(id, sessionId);
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 }
@@ -0,0 +1,32 @@
+package nl.utwente.ing.controller;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.coyote.ActionCode;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+/**
+ * Closes the connection when a request fails after its response was committed, like a streamed
+ * export whose read fails halfway. Otherwise the error page would be appended to the partial body
+ * and the response would end as if it was complete.
+ */
+class CommittedErrorValve extends ValveBase {
+
+    CommittedErrorValve() {
+        super(true);
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        getNext().invoke(request, response);
+        if (response.isCommitted() && response.isErrorReportRequired() && response.setErrorReported()) {
+            response.flushBuffer();
+            response.getCoyoteResponse().action(ActionCode.CLOSE_NOW,
+                    request.getAttribute(RequestDispatcher.ERROR_EXCEPTION));
+        }
+    }
+}
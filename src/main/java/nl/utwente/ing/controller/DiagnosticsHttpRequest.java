@@ -0,0 +1,65 @@
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.database.BalanceIndex;
+import nl.utwente.ing.database.CategoryCache;
+import nl.utwente.ing.database.CategoryRuleIndex;
+import nl.utwente.ing.database.ConnectionPool;
+import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.MessageFeed;
+import nl.utwente.ing.database.SavingGoalBatch;
+import nl.utwente.ing.database.SessionRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
+public class DiagnosticsHttpRequest {
+
+    @Autowired
+    private SavingGoalBatch savingGoalBatch;
+
+    // ---------------- Diagnostics -----------------
+    // GET
+    @RequestMapping(value = "/diagnostics/storage", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Object> getStorage() {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("profile", pool.getProfile());
+        result.put("effective", DatabaseCommunication.getStorageSettings());
+        result.put("pool", pool.getStatistics());
+        return result;
+    }
+
+    @RequestMapping(value = "/diagnostics/sessions", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Long> getSessions() {
+        return SessionRegistry.getStatistics();
+    }
+
+    @RequestMapping(value = "/diagnostics/categories", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Number> getCategoryCache() {
+        return CategoryCache.getStatistics();
+    }
+
+    @RequestMapping(value = "/diagnostics/categoryRules", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Long> getCategoryRuleIndex() {
+        return CategoryRuleIndex.getStatistics();
+    }
+
+    @RequestMapping(value = "/diagnostics/balance", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Long> getBalanceIndex() {
+        return BalanceIndex.getStatistics();
+    }
+
+    @RequestMapping(value = "/diagnostics/messageFeed", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Long> getMessageFeed() {
+        return MessageFeed.getStatistics();
+    }
+
+    @RequestMapping(value = "/diagnostics/savingGoals", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Object> getSavingGoalBatch() {
+        return savingGoalBatch.getStatistics();
+    }
+}
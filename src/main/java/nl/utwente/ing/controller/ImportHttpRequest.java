@@ -0,0 +1,87 @@
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
+import nl.utwente.ing.imports.StatementFormatException;
+import nl.utwente.ing.imports.StatementImporter;
+import nl.utwente.ing.model.StatementFormat;
+import nl.utwente.ing.model.StatementImport;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RestController
+@RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "*")
+public class ImportHttpRequest {
+
+    // ---------------- Responses --------------------
+    // Invalid input
+    @SuppressWarnings("serial")
+    @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
+    private class InvalidInputException extends RuntimeException {}
+
+    // Invalid input
+    @SuppressWarnings("serial")
+    @ResponseStatus(value = HttpStatus.NOT_FOUND, reason="Item(s) not found")
+    private class ItemNotFound extends RuntimeException {}
+
+    // GET
+    @RequestMapping(value = "/imports", method = RequestMethod.GET)
+    public List<StatementImport> getImports(@SessionId int sessionId) {
+        return DatabaseCommunication.getImports(sessionId);
+    }
+
+    // GET
+    @RequestMapping(value = "/imports/{id}", method = RequestMethod.GET)
+    public StatementImport getImport(
+            @PathVariable int id,
+            @SessionId int sessionId) {
+        StatementImport statementImport = DatabaseCommunication.getImport(id, sessionId);
+        if (statementImport == null) {
+            throw new ItemNotFound();
+        }
+        return statementImport;
+    }
+
+    // POST - The body is a statement file in the given format, or the same file again to resume an import
+    // that did not complete. The rows are committed in chunks while the file is read.
+    @RequestMapping(value = "/imports", method = RequestMethod.POST)
+    public ResponseEntity<StatementImport> importStatement(
+            InputStream body,
+            @RequestParam(value="format", defaultValue="csv") String format,
+            @RequestParam(value="resume", required=false) Integer resume,
+            @SessionId int sessionId) throws IOException, SQLException {
+        StatementImport statementImport;
+        if (resume == null) {
+            try {
+                StatementFormat.valueOf(format);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidInputException();
+            }
+            statementImport = new StatementImport(IdAllocator.IMPORTS.next(), format, StatementImport.RUNNING,
+                    LocalDateTime.now().toString());
+            DatabaseCommunication.addImport(statementImport, sessionId);
+        } else {
+            statementImport = DatabaseCommunication.getImport(resume, sessionId);
+            if (statementImport == null) {
+                throw new ItemNotFound();
+            }
+            if (StatementImport.COMPLETED.equals(statementImport.getStatus())) {
+                return new ResponseEntity<>(statementImport, HttpStatus.OK);
+            }
+        }
+
+        try {
+            StatementImporter.run(statementImport, body, sessionId);
+        } catch (StatementFormatException e) {
+            throw new InvalidInputException();
+        }
+        return new ResponseEntity<>(statementImport, resume == null ? HttpStatus.CREATED : HttpStatus.OK);
+    }
+}
@@ -3,12 +3,17 @@ package nl.utwente.ing.controller;
 
 import nl.utwente.ing.database.DatabaseCommunication;
 import nl.utwente.ing.model.Message;
+import nl.utwente.ing.model.MessageType;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
@@ -21,66 +26,78 @@ public class MessageHttpRequest {
     public void invalidInput() {}
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
+    // Invalid input
     @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
+    @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
+    private class InvalidInputException extends RuntimeException {}
 
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.NOT_FOUND, reason="Resource not found")
     private class ItemNotFound extends RuntimeException {}
 
+    // GET - Cursor, limit, unread and type parameter
+    // A full page sets the X-Next-Cursor header to the cursor of the next page.
     @RequestMapping(value = "/messages", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public List<Message> getMessages(@RequestParam(value = "session_id", required = false) String sessionId,
-                                     @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
+    public ResponseEntity<List<Message>> getMessages(
+            @RequestParam(value="cursor", defaultValue="0") int cursor,
+            @RequestParam(value="limit", defaultValue="100") int limit,
+            @RequestParam(value="unread", defaultValue="false") boolean unread,
+            @RequestParam(value="type", required=false) String type,
+            @SessionId int sessionId) {
+        // Enforce the limits for cursor and limit
+        cursor = Math.max(cursor, 0);
+        limit = Math.max(limit, 1);
+        limit = Math.min(limit, 1000);
+
+        MessageType messageType = null;
+        if (type != null) {
+            try {
+                messageType = MessageType.valueOf(type);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidInputException();
+            }
         }
 
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
+        List<Message> messages = DatabaseCommunication.getMessages(sessionId, cursor, limit, unread, messageType);
+        HttpHeaders headers = new HttpHeaders();
+        if (messages.size() == limit) {
+            headers.set("X-Next-Cursor", Integer.toString(messages.get(messages.size() - 1).getId()));
         }
+        return new ResponseEntity<>(messages, headers, HttpStatus.OK);
+    }
 
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
+    @RequestMapping(value = "/messages/unread", method = RequestMethod.GET, produces = "application/json", consumes = "*")
+    public Map<String, Integer> getUnreadMessageCount(@SessionId int sessionId) {
+        return Collections.singletonMap("unread", DatabaseCommunication.getUnreadMessageCount(sessionId));
+    }
 
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
+    // GET - Streams new messages as server-sent events, from the Last-Event-ID header or cursor parameter on
+    @RequestMapping(value = "/messages/stream", method = RequestMethod.GET, produces = "text/event-stream", consumes = "*")
+    public SseEmitter streamMessages(
+            @RequestHeader(value="Last-Event-ID", required=false) String lastEventId,
+            @RequestParam(value="cursor", required=false) String cursor,
+            @SessionId int sessionId) {
+        String start = lastEventId != null ? lastEventId : cursor;
+        Integer messageId = null;
+        if (start != null) {
+            try {
+                messageId = Math.max(Integer.parseInt(start), 0);
+            } catch (NumberFormatException e) {
+                // Not an id of this stream, an error can not be sent as an event so stream new messages only.
+            }
         }
-
-        return DatabaseCommunication.getMessages(Integer.parseInt(sessionId));
+        return MessageStream.open(sessionId, messageId);
     }
 
     @RequestMapping(value = "/messages/{messageId}", method = RequestMethod.PUT)
-    public ResponseEntity<Message> updateMessage(@RequestParam(value = "session_id", required = false) String sessionId,
-                                        @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
+    public ResponseEntity<Message> updateMessage(@SessionId int sessionId,
                                         @PathVariable("messageId") String messageId) {
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        if (DatabaseCommunication.getMessage(Integer.parseInt(messageId), Integer.parseInt(sessionId)) == null) {
+        if (DatabaseCommunication.getMessage(Integer.parseInt(messageId), sessionId) == null) {
             throw new ItemNotFound();
         }
 
-        DatabaseCommunication.updateMessage(Integer.parseInt(messageId), Integer.parseInt(sessionId));
-        return new ResponseEntity(DatabaseCommunication.getMessage(Integer.parseInt(messageId), Integer.parseInt(sessionId)), HttpStatus.OK);
+        DatabaseCommunication.updateMessage(Integer.parseInt(messageId), sessionId);
+        return new ResponseEntity(DatabaseCommunication.getMessage(Integer.parseInt(messageId), sessionId), HttpStatus.OK);
     }
 }
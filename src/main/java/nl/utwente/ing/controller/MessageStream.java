@@ -0,0 +1,178 @@
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.MessageFeed;
+import nl.utwente.ing.model.Message;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the new messages of a session to one client as server-sent events.
+ * Every event has the id of its message, so a client that reconnects with the Last-Event-ID
+ * header first gets the messages it missed from the database. A client whose buffer in the
+ * {@link MessageFeed} overflows is disconnected, so it reconnects and catches up the same way.
+ * A comment is sent every HEARTBEAT_SECONDS so proxies keep the connection open.
+ * All writes of a stream are done by one task at a time on the SENDER pool, so a slow client
+ * only holds up its own stream and never the scheduler of the heartbeats.
+ */
+class MessageStream {
+    private static final long TIMEOUT = 30 * 60 * 1000L;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final int REPLAY_PAGE_SIZE = 1000;
+
+    private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-stream-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService SENDER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "message-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int sessionID;
+    private final SseEmitter emitter = new SseEmitter(TIMEOUT);
+    private volatile MessageFeed.Subscription subscription;
+    private ScheduledFuture<?> heartbeat;
+    // Number of wake ups since the flush task last went idle, the task only runs while it is non-zero.
+    private final AtomicInteger wakeUps = new AtomicInteger();
+    private volatile boolean heartbeatDue = false;
+    // Id of the last message that was sent, messages with a lower id were sent already.
+    private int cursor;
+    // New messages stay buffered until the missed messages are sent.
+    private boolean replaying;
+    private volatile boolean closed = false;
+
+    private MessageStream(int sessionID, int cursor, boolean replaying) {
+        this.sessionID = sessionID;
+        this.cursor = cursor;
+        this.replaying = replaying;
+    }
+
+    /**
+     * Opens a stream of the new messages of a session.
+     * @param sessionID id of the session.
+     * @param cursor id of the last message the client has seen, or null to only stream new messages.
+     * @return the emitter of the stream.
+     */
+    static SseEmitter open(int sessionID, Integer cursor) {
+        MessageStream stream = new MessageStream(sessionID, cursor == null ? 0 : cursor, cursor != null);
+        stream.emitter.onCompletion(stream::close);
+        stream.emitter.onTimeout(stream::close);
+        synchronized (stream) {
+            // Subscribe before replaying, messages that arrive in between are skipped by the cursor.
+            stream.subscription = MessageFeed.subscribe(sessionID, stream::wake);
+            stream.heartbeat = HEARTBEATS.scheduleAtFixedRate(() -> {
+                stream.heartbeatDue = true;
+                stream.wake();
+            }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        }
+        stream.wake();
+        return stream.emitter;
+    }
+
+    /**
+     * Makes sure the flush task runs after this call, starting it unless it is running already.
+     */
+    private void wake() {
+        if (wakeUps.getAndIncrement() == 0) {
+            SENDER.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        int seen;
+        do {
+            seen = wakeUps.get();
+            if (replaying) {
+                replay();
+            }
+            drain();
+            if (heartbeatDue) {
+                heartbeatDue = false;
+                heartbeat();
+            }
+        } while (!wakeUps.compareAndSet(seen, 0));
+    }
+
+    private void replay() {
+        List<Message> messages;
+        do {
+            if (closed) {
+                return;
+            }
+            try {
+                messages = DatabaseCommunication.getMessages(sessionID, cursor, REPLAY_PAGE_SIZE, false, null);
+            } catch (IllegalStateException e) {
+                // The client reconnects and replays from the last message it got.
+                emitter.complete();
+                close();
+                return;
+            }
+            send(messages);
+        } while (messages.size() == REPLAY_PAGE_SIZE);
+        replaying = false;
+    }
+
+    private void drain() {
+        MessageFeed.Subscription subscription = this.subscription;
+        if (closed || replaying || subscription == null) {
+            return;
+        }
+        if (subscription.isOverflowed()) {
+            emitter.complete();
+            close();
+            return;
+        }
+        send(subscription.poll());
+    }
+
+    private void heartbeat() {
+        if (closed) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().comment("heartbeat"));
+        } catch (IOException | IllegalStateException e) {
+            close();
+        }
+    }
+
+    private void send(List<Message> messages) {
+        for (Message m : messages) {
+            if (closed || m.getId() <= cursor) {
+                continue;
+            }
+            try {
+                emitter.send(SseEmitter.event().id(Integer.toString(m.getId())).name("message")
+                        .data(m, MediaType.APPLICATION_JSON));
+                cursor = m.getId();
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+    }
+
+    private synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (subscription != null) {
+            subscription.close();
+        }
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+    }
+}
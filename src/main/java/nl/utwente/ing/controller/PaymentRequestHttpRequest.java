@@ -1,6 +1,7 @@
 package nl.utwente.ing.controller;
 
 import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
 import nl.utwente.ing.model.PaymentRequest;
 import org.json.JSONObject;
 import org.springframework.http.HttpStatus;
@@ -21,11 +22,6 @@ public class PaymentRequestHttpRequest {
     public void invalidInput() {}
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
-    @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
-
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
@@ -39,26 +35,8 @@ public class PaymentRequestHttpRequest {
     //Payment Requests
     //GET
     @RequestMapping(value = "/paymentRequests", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public List<PaymentRequest> getPaymentRequests(@RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
-                                                   @RequestParam(value = "session_id", required = false) String sessionId) {
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        return DatabaseCommunication.getPaymentRequests(Integer.parseInt(sessionId));
+    public List<PaymentRequest> getPaymentRequests(@SessionId int sessionId) {
+        return DatabaseCommunication.getPaymentRequests(sessionId);
     }
 
     private boolean validJsonPaymentRequest(JSONObject jsonObject) {
@@ -68,26 +46,8 @@ public class PaymentRequestHttpRequest {
 
     //POST
     @RequestMapping(value = "/paymentRequests", method = RequestMethod.POST, produces = "application/json", consumes = "*")
-    public ResponseEntity<PaymentRequest> addPaymentRequest(@RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
-                                      @RequestParam(value = "session_id", required = false) String sessionId,
+    public ResponseEntity<PaymentRequest> addPaymentRequest(@SessionId int sessionId,
                                       @RequestBody String paymentRequestString) {
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionIDHeader))) {
-            throw new SessionIDException();
-        }
-
         if (paymentRequestString.isEmpty()) {
             throw new InvalidInputException();
         }
@@ -98,7 +58,7 @@ public class PaymentRequestHttpRequest {
             throw new InvalidInputException();
         }
 
-        int id = DatabaseCommunication.getLastPaymentRequestsId() + 1;
+        int id = IdAllocator.PAYMENT_REQUESTS.next();
         String description = paymentRequestJson.getString("description");
         String dueDate = paymentRequestJson.getString("due_date");
         double amount = paymentRequestJson.getDouble("amount");
@@ -107,8 +67,7 @@ public class PaymentRequestHttpRequest {
         if (!paymentRequest.checkValidPaymentRequest()) {
             throw new InvalidInputException();
         }
-        DatabaseCommunication.addPaymentRequest(paymentRequest);
-        DatabaseCommunication.addPaymentId(Integer.parseInt(sessionId), id);
+        DatabaseCommunication.addPaymentRequest(paymentRequest, sessionId);
         return new ResponseEntity(paymentRequest, HttpStatus.CREATED);
     }
 }
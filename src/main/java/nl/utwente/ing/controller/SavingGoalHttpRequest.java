@@ -1,6 +1,7 @@
 package nl.utwente.ing.controller;
 
 import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
 import nl.utwente.ing.model.SavingGoal;
 import org.json.JSONObject;
 import org.springframework.http.HttpStatus;
@@ -14,11 +15,6 @@ import java.util.List;
 public class SavingGoalHttpRequest {
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
-    @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
-
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
@@ -38,54 +34,18 @@ public class SavingGoalHttpRequest {
 
     //GET
     @RequestMapping(value = "/savingGoals", method = RequestMethod.GET, produces = "application/json", consumes = "*")
-    public List<SavingGoal> getSavingGoals(@RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
-                                           @RequestParam(value = "session_id", required = false) String sessionId) {
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        return DatabaseCommunication.getSavingGoals(Integer.parseInt(sessionId));
+    public List<SavingGoal> getSavingGoals(@SessionId int sessionId) {
+        return DatabaseCommunication.getSavingGoals(sessionId);
     }
 
     //POST
     @RequestMapping(value = "/savingGoals", method = RequestMethod.POST, produces = "application/json", consumes = "*")
-    public ResponseEntity<SavingGoal> addSavingGoal(@RequestParam(value = "session_id", required = false) String sessionId,
-                                                    @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
+    public ResponseEntity<SavingGoal> addSavingGoal(@SessionId int sessionId,
                                                     @RequestBody(required = false) String saving) {
         if (saving == null) {
             throw new InvalidInputException();
         }
 
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
         JSONObject jsonObject = new JSONObject(saving);
         if (!correctJsonSavingGoal(jsonObject)) {
             throw new InvalidInputException();
@@ -93,7 +53,7 @@ public class SavingGoalHttpRequest {
         if (!jsonObject.has("minBalanceRequired")) {
             jsonObject.put("minBalanceRequired", 0);
         }
-        int id = DatabaseCommunication.getLastSavingsID() + 1;
+        int id = IdAllocator.SAVING_GOALS.next();
         String name = jsonObject.getString("name");
         double goal = jsonObject.getDouble("goal");
         double savePerMonth = jsonObject.getDouble("savePerMonth");
@@ -102,38 +62,18 @@ public class SavingGoalHttpRequest {
         if (!savingGoal.validSavingGoal()) {
             throw new InvalidInputException();
         }
-        DatabaseCommunication.addGoalId(Integer.parseInt(sessionId), id);
-        DatabaseCommunication.addSavingGoal(savingGoal);
+        DatabaseCommunication.addSavingGoal(savingGoal, sessionId);
         return new ResponseEntity<>(savingGoal, HttpStatus.CREATED);
     }
 
     //DELETE
     @RequestMapping(value = "/savingGoals/{savingGoalId}", method = RequestMethod.DELETE, produces = "application/json", consumes = "*")
-    public ResponseEntity deleteSavingGoal(@RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader,
-                                           @RequestParam(value = "session_id", required = false) String sessionId,
+    public ResponseEntity deleteSavingGoal(@SessionId int sessionId,
                                            @PathVariable("savingGoalId") int savingGoal) {
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.checkValidSavingGoal(savingGoal)) {
+        if (!DatabaseCommunication.checkValidSavingGoal(savingGoal, sessionId)) {
             throw new ItemNotFound();
         }
-        DatabaseCommunication.deleteSavingGoal(savingGoal, Integer.parseInt(sessionId));
-        DatabaseCommunication.deleteSavingGoalId(savingGoal, Integer.parseInt(sessionId));
+        DatabaseCommunication.deleteSavingGoal(savingGoal, sessionId);
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 }
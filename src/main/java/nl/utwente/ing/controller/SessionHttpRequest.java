@@ -5,21 +5,39 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.SessionRegistry;
+
+import java.util.List;
 
 
 @RestController
 @RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
 public class SessionHttpRequest {
 
+	// Largest number of sessions that can be created with one request.
+	private static final int MAX_COUNT = 10000;
+
+	// Invalid input
+	@SuppressWarnings("serial")
+	@ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
+	private class InvalidInputException extends RuntimeException {}
+
 	// ---------------- Sessions -----------------
-	// POST
+	// POST - optional count parameter to create several sessions at once
 	@RequestMapping(value = "/sessions", method = RequestMethod.POST, produces = "application/json", consumes = "*")
-	public ResponseEntity getSessionId() {
-		// One more than the maximum session Id present.
-		int newSessionId = DatabaseCommunication.getMaxSessionId() + 1;
-		JSONObject jsonObject = new JSONObject().put("id", newSessionId);
-		DatabaseCommunication.basicSql(newSessionId);
+	public ResponseEntity getSessionId(@RequestParam(value = "count", required = false) Integer count) {
+		if (count == null) {
+			int newSessionId = SessionRegistry.create(1).get(0);
+			JSONObject jsonObject = new JSONObject().put("id", newSessionId);
+			return new ResponseEntity<>(jsonObject.toString(), HttpStatus.CREATED);
+		}
+
+		if (count <= 0 || count > MAX_COUNT) {
+			throw new InvalidInputException();
+		}
+
+		List<Integer> newSessionIds = SessionRegistry.create(count);
+		JSONObject jsonObject = new JSONObject().put("ids", newSessionIds);
 		return new ResponseEntity<>(jsonObject.toString(), HttpStatus.CREATED);
 	}
 }
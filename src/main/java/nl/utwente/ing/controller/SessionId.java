@@ -0,0 +1,15 @@
+package nl.utwente.ing.controller;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller parameter that receives the validated session id of the request,
+ * taken from the session_id parameter or the X-session-ID header.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SessionId {
+}
@@ -0,0 +1,66 @@
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.database.SessionRegistry;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Resolves parameters annotated with {@link SessionId}.
+ * The session id is read from the session_id parameter or the X-session-ID header, if both are
+ * given they have to be equal. It is checked against the {@link SessionRegistry} once per request.
+ */
+public class SessionIdArgumentResolver implements HandlerMethodArgumentResolver {
+    private static final String ATTRIBUTE = SessionIdArgumentResolver.class.getName() + ".sessionId";
+
+    // No/Wrong sessionID
+    @SuppressWarnings("serial")
+    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
+    public static class SessionIDException extends RuntimeException {}
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(SessionId.class);
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Object resolved = webRequest.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (resolved != null) {
+            return resolved;
+        }
+
+        String sessionId = webRequest.getParameter("session_id");
+        String sessionIDHeader = webRequest.getHeader("X-session-ID");
+
+        if (sessionId == null) {
+            sessionId = sessionIDHeader;
+        } else if (sessionIDHeader != null && !sessionId.equals(sessionIDHeader)) {
+            throw new SessionIDException();
+        }
+
+        if (sessionId == null) {
+            throw new SessionIDException();
+        }
+
+        int id;
+        try {
+            id = Integer.parseInt(sessionId.trim());
+        } catch (NumberFormatException e) {
+            throw new SessionIDException();
+        }
+
+        if (!SessionRegistry.isValid(id)) {
+            throw new SessionIDException();
+        }
+
+        webRequest.setAttribute(ATTRIBUTE, id, RequestAttributes.SCOPE_REQUEST);
+        return id;
+    }
+}
@@ -1,22 +1,53 @@
 package nl.utwente.ing.controller;
 
 import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
 import nl.utwente.ing.model.Transaction;
 import nl.utwente.ing.model.TransactionType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
-
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
 public class TransactionHttpRequest {
+    private static final int MAX_BATCH_SIZE = 10000;
+    // Every export holds a pooled connection until it is done, so only a few run at the same time.
+    private static final Semaphore EXPORTS = new Semaphore(2);
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
     private boolean correctJsonTransaction(JSONObject jsonTransaction) {
         return jsonTransaction.has("date") && jsonTransaction.has("amount") &&
@@ -24,6 +55,33 @@ public class TransactionHttpRequest {
                 jsonTransaction.has("description");
     }
 
+    private Transaction toTransaction(JSONObject jsonTransaction, int id) {
+        if (!correctJsonTransaction(jsonTransaction)) {
+            throw new InvalidInputException();
+        }
+
+        if (!checkValidType(jsonTransaction.getString("type"))) {
+            throw new InvalidInputException();
+        }
+
+        String date = jsonTransaction.getString("date").replace("Z", "");
+
+        try {
+            DateTimeFormatter timeFormatter = DateTimeFormatter.ISO_DATE_TIME;
+            timeFormatter.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new InvalidInputException();
+        }
+
+        Transaction transaction = new Transaction(id, jsonTransaction.getString("date"), jsonTransaction.getDouble("amount"),
+                jsonTransaction.getString("externalIBAN"), jsonTransaction.getString("type"), jsonTransaction.getString("description"));
+
+        if (!transaction.validTransaction()) {
+            throw new InvalidInputException();
+        }
+        return transaction;
+    }
+
     private boolean checkValidType(String type) {
         for (TransactionType search : TransactionType.values()) {
             if (search.name().equals(type)) {
@@ -40,11 +98,6 @@ public class TransactionHttpRequest {
     public void invalidInput() {}
 
     // ---------------- Responses --------------------
-    // No/Wrong sessionID
-    @SuppressWarnings("serial")
-    @ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason="Session ID is missing or invalid")
-    private class SessionIDException extends RuntimeException {}
-
     // Invalid input
     @SuppressWarnings("serial")
     @ResponseStatus(value = HttpStatus.METHOD_NOT_ALLOWED, reason="Invalid input given")
@@ -55,6 +108,11 @@ public class TransactionHttpRequest {
     @ResponseStatus(value = HttpStatus.NOT_FOUND, reason="Item(s) not found")
     private class ItemNotFound extends RuntimeException {}
 
+    // Too many exports
+    @SuppressWarnings("serial")
+    @ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason="Too many exports running, try again later")
+    private class TooManyExports extends RuntimeException {}
+
     // GET - Offset, limit and category parameter
 
     @RequestMapping(value = "/transactions", method = RequestMethod.GET, produces = "application/json", consumes = "*")
@@ -62,125 +120,187 @@ public class TransactionHttpRequest {
             @RequestParam(value="offset", defaultValue="0") int offset,
             @RequestParam(value="limit", defaultValue="20") int limit,
             @RequestParam(value="category", defaultValue="-1") int categoryID,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
+            @SessionId int sessionId) {
         // Enforce the limits for offset and limit
         offset = Math.max(offset, 0);
         limit = Math.max(limit, 1);
         limit = Math.min(limit, 100);
 
 
-        return DatabaseCommunication.getAllTransactions(offset, limit, categoryID, Integer.parseInt(sessionId));
+        return DatabaseCommunication.getAllTransactions(offset, limit, categoryID, sessionId);
     }
 
-    // POST
-    @RequestMapping(method = RequestMethod.POST, value = "/transactions", produces = "application/json", consumes = "*")
-    public ResponseEntity addTransaction(
-            @RequestBody String t,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
+    // GET - Every transaction of the session in the order of the history, as NDJSON or CSV
+    // The rows are written while they are read from the database, the response is never held in memory.
+    // The content type is set on the response, errors are still rendered as JSON.
+    @RequestMapping(value = "/transactions/export", method = RequestMethod.GET,
+            produces = {"application/json", "application/x-ndjson", "text/csv"}, consumes = "*")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @RequestParam(value="format", defaultValue="ndjson") String format,
+            @SessionId int sessionId,
+            HttpServletRequest request) {
+        boolean csv;
+        if ("csv".equals(format)) {
+            csv = true;
+        } else if ("ndjson".equals(format)) {
+            csv = false;
+        } else {
+            throw new InvalidInputException();
         }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
+        if (!EXPORTS.tryAcquire()) {
+            throw new TooManyExports();
         }
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                EXPORTS.release();
+            }
+        };
+        // A request can end without running the body, like on a timeout, so its end releases the permit too.
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORTS,
+                new CallableProcessingInterceptorAdapter() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        release.run();
+                    }
+                });
+
+        StreamingResponseBody body = out -> {
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                if (csv) {
+                    writer.write("id,date,amount,externalIBAN,type,description,balance,categoryId,category\n");
+                }
+                DatabaseCommunication.forEachTransaction(sessionId, t -> {
+                    try {
+                        writer.write(csv ? toCsv(t) : objectMapper.writeValueAsString(t));
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.flush();
+            } catch (IOException | UncheckedIOException e) {
+                // The client went away, the rest of the export is not read.
+            } finally {
+                release.run();
+            }
+        };
+        MediaType contentType = csv ? MediaType.parseMediaType("text/csv") : MediaType.parseMediaType("application/x-ndjson");
+        return ResponseEntity.ok().contentType(contentType).body(body);
+    }
 
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
+    private String toCsv(Transaction t) {
+        return t.getId() + "," + t.getDate() + "," + BigDecimal.valueOf(t.getAmount()).toPlainString() + "," +
+                csvField(t.getExternalIBAN()) + "," + t.getType() + "," + csvField(t.getDescription()) + "," +
+                BigDecimal.valueOf(t.getBalance()).toPlainString() + "," +
+                (t.getCategory().getName() == null ? "," : t.getCategory().getId() + "," + csvField(t.getCategory().getName()));
+    }
 
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
+    private String csvField(String value) {
+        if (value == null) {
+            return "";
         }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
 
+    // POST
+    @RequestMapping(method = RequestMethod.POST, value = "/transactions", produces = "application/json", consumes = "*")
+    public ResponseEntity addTransaction(
+            @RequestBody String t,
+            @SessionId int sessionId) {
         if(t.isEmpty()) {
             throw new InvalidInputException();
         }
 
-        int newId = DatabaseCommunication.getLastTransactionIndex() + 1;
-        JSONObject jsonTransaction = new JSONObject(t);
+        int newId = IdAllocator.TRANSACTIONS.next();
+        Transaction transaction = toTransaction(new JSONObject(t), newId);
 
-        if (!correctJsonTransaction(jsonTransaction)) {
-            throw new InvalidInputException();
-        }
+        DatabaseCommunication.addTransaction(transaction, sessionId);
+        DatabaseCommunication.updateSavingGoals(sessionId);
+        DatabaseCommunication.checkBalance(sessionId, transaction.getDate().toString());
+        // Create a response add the created object to it
+        return new ResponseEntity<>(t, HttpStatus.CREATED);
+    }
 
-        if (!checkValidType(jsonTransaction.getString("type"))) {
+    // POST - A JSON array or newline delimited JSON objects, all stored in one unit of work
+    @RequestMapping(method = RequestMethod.POST, value = "/transactions/batch", produces = "application/json", consumes = "*")
+    public ResponseEntity<List<Transaction>> addTransactions(
+            Reader body,
+            @SessionId int sessionId) throws IOException {
+        List<JSONObject> jsonTransactions = new ArrayList<>();
+        PushbackReader reader = new PushbackReader(body);
+        try {
+            int first;
+            do {
+                first = reader.read();
+            } while (first != -1 && Character.isWhitespace(first));
+            if (first == -1) {
+                throw new InvalidInputException();
+            }
+            reader.unread(first);
+
+            // The size of the batch is checked while reading, so a too large body is never buffered completely.
+            if (first == '[') {
+                JSONTokener tokener = new JSONTokener(reader);
+                tokener.nextClean();
+                if (tokener.nextClean() != ']') {
+                    tokener.back();
+                    char next;
+                    do {
+                        if (jsonTransactions.size() == MAX_BATCH_SIZE) {
+                            throw new InvalidInputException();
+                        }
+                        jsonTransactions.add(new JSONObject(tokener));
+                        next = tokener.nextClean();
+                    } while (next == ',');
+                    if (next != ']') {
+                        throw tokener.syntaxError("Expected a ',' or ']'");
+                    }
+                }
+            } else {
+                BufferedReader lines = new BufferedReader(reader);
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        if (jsonTransactions.size() == MAX_BATCH_SIZE) {
+                            throw new InvalidInputException();
+                        }
+                        jsonTransactions.add(new JSONObject(line));
+                    }
+                }
+            }
+        } catch (JSONException e) {
             throw new InvalidInputException();
         }
-
-        String date = jsonTransaction.getString("date").replace("Z", "");
-
-        try {
-            DateTimeFormatter timeFormatter = DateTimeFormatter.ISO_DATE_TIME;
-            timeFormatter.parse(date);
-        } catch (DateTimeParseException e) {
+        if (jsonTransactions.isEmpty()) {
             throw new InvalidInputException();
         }
 
-        Transaction transaction = new Transaction(newId, jsonTransaction.getString("date"), jsonTransaction.getDouble("amount"),
-                jsonTransaction.getString("externalIBAN"), jsonTransaction.getString("type"), jsonTransaction.getString("description"));
-
-        if (!transaction.validTransaction()) {
+        List<Transaction> transactions = new ArrayList<>();
+        try {
+            for (JSONObject jsonTransaction : jsonTransactions) {
+                transactions.add(toTransaction(jsonTransaction, IdAllocator.TRANSACTIONS.next()));
+            }
+        } catch (JSONException e) {
             throw new InvalidInputException();
         }
 
-        //Add the model id to the session
-        DatabaseCommunication.addTransactionId(Integer.parseInt(sessionId), transaction.getId());
-        DatabaseCommunication.addTransaction(transaction, Integer.parseInt(sessionId));
-        DatabaseCommunication.updateBalance(Integer.parseInt(sessionId));
-        DatabaseCommunication.updateSavingGoals(Integer.parseInt(sessionId));
-        DatabaseCommunication.checkBalance(Integer.parseInt(sessionId), transaction.getDate().toString());
-        // Create a response add the created object to it
-        return new ResponseEntity<>(t, HttpStatus.CREATED);
+        DatabaseCommunication.addTransactions(transactions, sessionId);
+        DatabaseCommunication.updateSavingGoals(sessionId);
+        DatabaseCommunication.checkBalance(sessionId, transactions.get(transactions.size() - 1).getDate().toString());
+        return new ResponseEntity<>(transactions, HttpStatus.CREATED);
     }
 
     // GET
     @RequestMapping(value = "/transactions/{id}", method = RequestMethod.GET, produces = "application/json", consumes = "*")
     public Transaction getTransaction(
             @PathVariable int id,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        Transaction transaction = DatabaseCommunication.getTransaction(id, Integer.parseInt(sessionId));
+            @SessionId int sessionId) {
+        Transaction transaction = DatabaseCommunication.getTransaction(id, sessionId);
         if (transaction == null) {
             throw new ItemNotFound();
         }
@@ -193,26 +313,7 @@ public class TransactionHttpRequest {
     public ResponseEntity<Transaction> updateTransaction(
             @RequestBody String t ,
             @PathVariable int id,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
+            @SessionId int sessionId) {
         if(t.isEmpty()) {
             throw new InvalidInputException();
         }
@@ -236,14 +337,13 @@ public class TransactionHttpRequest {
             throw new InvalidInputException();
         }
 
-        if (DatabaseCommunication.getTransaction(id, Integer.parseInt(sessionId)) == null) {
+        if (DatabaseCommunication.getTransaction(id, sessionId) == null) {
             throw new ItemNotFound();
         }
 
-        DatabaseCommunication.updateTransaction(transaction ,id, Integer.parseInt(sessionId));
-        DatabaseCommunication.updateBalance(Integer.parseInt(sessionId));
+        DatabaseCommunication.updateTransaction(transaction ,id, sessionId);
 
-        return new ResponseEntity<>(DatabaseCommunication.getTransaction(id, Integer.parseInt(sessionId)), HttpStatus.OK);
+        return new ResponseEntity<>(DatabaseCommunication.getTransaction(id, sessionId), HttpStatus.OK);
     }
 
     // DELETE
@@ -251,33 +351,11 @@ public class TransactionHttpRequest {
     @RequestMapping(method = RequestMethod.DELETE, value = "/transactions/{id}", produces = "application/json", consumes = "*")
     public ResponseEntity deleteTransaction(
             @PathVariable int id,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
-        if (DatabaseCommunication.getTransaction(id, Integer.parseInt(sessionId)) == null) {
+            @SessionId int sessionId) {
+        if (DatabaseCommunication.getTransaction(id, sessionId) == null) {
             throw new ItemNotFound();
         }
-        DatabaseCommunication.deleteTransaction(id, Integer.parseInt(sessionId));
-
-        // Remove it from the sessions
-        DatabaseCommunication.deleteTransactionId(Integer.parseInt(sessionId), id);
+        DatabaseCommunication.deleteTransaction(id, sessionId);
 
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
@@ -287,26 +365,7 @@ public class TransactionHttpRequest {
     public ResponseEntity<Transaction> assignCategory(
             @RequestBody String category_id,
             @PathVariable int transactionID,
-            @RequestParam(value="session_id", required =false) String sessionId,
-            @RequestHeader(value = "X-session-ID", required = false) String sessionIDHeader) {
-
-        if (sessionId == null && sessionIDHeader != null) {
-            sessionId = sessionIDHeader;
-        }
-
-        if (sessionId != sessionIDHeader && sessionId != null && sessionIDHeader != null) {
-            throw new SessionIDException();
-        }
-
-        if (sessionId == null && sessionIDHeader == null) {
-            throw new SessionIDException();
-        }
-
-        if (!DatabaseCommunication.validSessionId(Integer.parseInt(sessionId)) ||
-                !DatabaseCommunication.validSessionId(Integer.parseInt(sessionId))) {
-            throw new SessionIDException();
-        }
-
+            @SessionId int sessionId) {
         // Create a JSON object
         JSONObject category;
         int categoryID;
@@ -317,13 +376,13 @@ public class TransactionHttpRequest {
             throw new ItemNotFound();
         }
 
-        if (DatabaseCommunication.getTransaction(transactionID, Integer.parseInt(sessionId)) == null ||
-                DatabaseCommunication.getCategory(categoryID, Integer.parseInt(sessionId)) == null) {
+        if (DatabaseCommunication.getTransaction(transactionID, sessionId) == null ||
+                DatabaseCommunication.getCategory(categoryID, sessionId) == null) {
             throw new ItemNotFound();
         }
 
-        DatabaseCommunication.assignCategory(categoryID, transactionID);
+        DatabaseCommunication.assignCategory(categoryID, transactionID, sessionId);
 
-        return new ResponseEntity<>(DatabaseCommunication.getTransaction(transactionID, Integer.parseInt(sessionId)), HttpStatus.OK);
+        return new ResponseEntity<>(DatabaseCommunication.getTransaction(transactionID, sessionId), HttpStatus.OK);
     }
 }
@@ -0,0 +1,61 @@
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.database.UnitOfWork;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Runs every HTTP request in its own unit of work.
+ * Requests that change data are committed once after the controller is done, or rolled back
+ * when it fails. Their response is held back until the commit succeeded, so a client never
+ * sees a result that is not stored yet.
+ */
+@Component
+public class UnitOfWorkFilter extends OncePerRequestFilter {
+
+    private boolean isWrite(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!isWrite(request)) {
+            UnitOfWork.begin(false);
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                UnitOfWork.rollback();
+            }
+            return;
+        }
+
+        ContentCachingResponseWrapper bufferedResponse = new ContentCachingResponseWrapper(response);
+        UnitOfWork.begin(true);
+        boolean success = false;
+        try {
+            chain.doFilter(request, bufferedResponse);
+            success = bufferedResponse.getStatusCode() < 400;
+        } finally {
+            if (!success) {
+                UnitOfWork.rollback();
+            }
+        }
+
+        try {
+            UnitOfWork.commit();
+        } catch (SQLException e) {
+            throw new ServletException("Could not commit the changes of the request", e);
+        }
+        bufferedResponse.copyBodyToResponse();
+    }
+}
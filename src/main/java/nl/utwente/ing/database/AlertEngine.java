@@ -0,0 +1,210 @@
+package nl.utwente.ing.database;
+
+import nl.utwente.ing.model.Message;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Generates the messages of a session on state transitions instead of on every check.
+ * Every alert of a session, for example a negative balance, is active or not. The active alerts are
+ * kept in the alertStates table. A message is only emitted when an alert becomes active, and an
+ * alert has to be cleared before it can emit again.
+ * Emitted messages are collected per unit of work and inserted in one batch just before it commits.
+ * Reading messages first writes the collected messages of the current thread, so a unit of work
+ * always sees its own messages.
+ */
+public class AlertEngine {
+    static final String BALANCE_NEGATIVE = "balance-negative";
+    static final String PAYMENT_REQUEST_OVERDUE = "payment-request-overdue:";
+    static final String SAVING_GOAL_REACHED = "saving-goal-reached:";
+
+    private static final ThreadLocal<List<Pending>> PENDING = new ThreadLocal<>();
+
+    private static class Pending {
+        private final int sessionID;
+        private final Message message;
+
+        private Pending(int sessionID, Message message) {
+            this.sessionID = sessionID;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Activates or clears an alert of a session, a message is emitted if the alert becomes active.
+     * @param sessionID id of the session.
+     * @param alert name of the alert.
+     * @param active true if the condition of the alert holds.
+     * @param message creates the message, only called when the alert becomes active.
+     */
+    static void update(int sessionID, String alert, boolean active, Supplier<Message> message) {
+        if (active) {
+            raise(sessionID, alert, message);
+        } else {
+            clear(sessionID, alert);
+        }
+    }
+
+    /**
+     * Activates an alert of a session, a message is emitted if the alert was not active yet.
+     * @param sessionID id of the session.
+     * @param alert name of the alert.
+     * @param message creates the message, only called when the alert becomes active.
+     */
+    static void raise(int sessionID, String alert, Supplier<Message> message) {
+        String sql = "INSERT OR IGNORE INTO alertStates(session_id, alert) VALUES(?, ?);";
+        int changed = 0;
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            pstmt.setString(2, alert);
+            changed = pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not raise alert " + alert + " of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if (changed > 0) {
+            emit(sessionID, message.get());
+        }
+    }
+
+    /**
+     * Clears an alert of a session, so it emits a message again the next time it becomes active.
+     * @param sessionID id of the session.
+     * @param alert name of the alert.
+     */
+    static void clear(int sessionID, String alert) {
+        String sql = "DELETE FROM alertStates WHERE session_id = ? AND alert = ?;";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            pstmt.setString(2, alert);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not clear alert " + alert + " of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the alerts of a session that are active and start with the given prefix.
+     * @param sessionID id of the session.
+     * @param prefix prefix of the alert names.
+     * @return List with the names of the active alerts.
+     */
+    static List<String> getActive(int sessionID, String prefix) {
+        String sql = "SELECT alert FROM alertStates WHERE session_id = ? AND alert >= ? AND alert < ?;";
+        List<String> alerts = new ArrayList<>();
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            pstmt.setString(2, prefix);
+            pstmt.setString(3, prefix + Character.MAX_VALUE);
+            ResultSet resultSet = pstmt.executeQuery();
+            while (resultSet.next()) {
+                alerts.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the alerts of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Emits a message, it is written when the current unit of work commits.
+     * Without an active unit of work the message is written immediately.
+     * @param sessionID id of the session.
+     * @param message the message.
+     */
+    static void emit(int sessionID, Message message) {
+        List<Pending> pending = PENDING.get();
+        boolean first = pending == null;
+        if (first) {
+            pending = new ArrayList<>();
+            PENDING.set(pending);
+        }
+        pending.add(new Pending(sessionID, message));
+        if (first) {
+            UnitOfWork.beforeCommit(AlertEngine::flush);
+            UnitOfWork.afterCompletion(PENDING::remove);
+        }
+    }
+
+    /**
+     * Writes the messages that were emitted by the current thread and not written yet.
+     * @throws IllegalStateException if the messages could not be written.
+     */
+    static void flush() {
+        List<Pending> pending = PENDING.get();
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO messages(id, message, date, read, type, session_id) VALUES(?, ?, ?, ?, ?, ?);";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            Map<Integer, Integer> unread = new HashMap<>();
+            for (Pending search : pending) {
+                Message m = search.message;
+                pstmt.setInt(1, m.getId());
+                pstmt.setString(2, m.getMessage());
+                pstmt.setString(3, m.getDate());
+                pstmt.setBoolean(4, m.isRead());
+                pstmt.setString(5, m.getType().toString());
+                pstmt.setInt(6, search.sessionID);
+                pstmt.addBatch();
+                if (!m.isRead()) {
+                    unread.merge(search.sessionID, 1, Integer::sum);
+                }
+            }
+            pstmt.executeBatch();
+            for (Map.Entry<Integer, Integer> entry : unread.entrySet()) {
+                DatabaseCommunication.addUnreadMessages(conn, entry.getKey(), entry.getValue());
+            }
+            for (Pending search : pending) {
+                MessageFeed.publish(search.sessionID, search.message);
+            }
+        } catch (SQLException e) {
+            // The messages stay pending, the unit of work rolls back and drops them when it completes.
+            throw new IllegalStateException("Could not write the messages", e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        pending.clear();
+    }
+}
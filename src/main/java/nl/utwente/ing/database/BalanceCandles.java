@@ -0,0 +1,427 @@
+package nl.utwente.ing.database;
+
+import nl.utwente.ing.model.History;
+import nl.utwente.ing.model.Interval;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains the balanceCandles table, which holds an open/close/high/low/volume candle for every
+ * interval length and every bucket of a session that contains transactions.
+ * The transaction writes in {@link DatabaseCommunication} keep the candles up to date, so the
+ * balance history only reads the candles of the requested window.
+ */
+class BalanceCandles {
+
+    /**
+     * Adds a transaction that was appended at the end of the history to the candles that contain it.
+     * @param sessionID id of the session.
+     * @param date date of the transaction.
+     * @param amount amount of the transaction.
+     * @param balanceBefore balance before the transaction.
+     * @param balance balance after the transaction.
+     */
+    static void append(int sessionID, LocalDateTime date, double amount, double balanceBefore, double balance) {
+        String update = "UPDATE balanceCandles SET close = ?, high = max(high, ?), low = min(low, ?), volume = volume + ? " +
+                "WHERE session_id = ? AND interval = ? AND start = ?;";
+        String insert = "INSERT INTO balanceCandles(session_id, interval, start, open, close, high, low, volume) " +
+                "VALUES(?,?,?,?,?,?,?,?);";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement updateStmt = conn.prepareStatement(update);
+            PreparedStatement insertStmt = conn.prepareStatement(insert);
+            for (Interval interval : Interval.values()) {
+                String start = interval.truncate(date).toString();
+                updateStmt.setDouble(1, balance);
+                updateStmt.setDouble(2, balance);
+                updateStmt.setDouble(3, balance);
+                updateStmt.setDouble(4, amount);
+                updateStmt.setInt(5, sessionID);
+                updateStmt.setString(6, interval.name());
+                updateStmt.setString(7, start);
+                if (updateStmt.executeUpdate() == 0) {
+                    insertStmt.setInt(1, sessionID);
+                    insertStmt.setString(2, interval.name());
+                    insertStmt.setString(3, start);
+                    insertStmt.setDouble(4, balanceBefore);
+                    insertStmt.setDouble(5, balance);
+                    insertStmt.setDouble(6, Math.max(balanceBefore, balance));
+                    insertStmt.setDouble(7, Math.min(balanceBefore, balance));
+                    insertStmt.setDouble(8, amount);
+                    insertStmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not add to the balance candles of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds delta to the candles of all buckets that start after the bucket containing the given date.
+     * @param sessionID id of the session.
+     * @param date date of the changed transaction.
+     * @param delta the change of the balances after the transaction.
+     */
+    static void shift(int sessionID, LocalDateTime date, double delta) {
+        String sql = "UPDATE balanceCandles SET open = open + ?, close = close + ?, high = high + ?, low = low + ? " +
+                "WHERE session_id = ? AND interval = ? AND start > ?;";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            for (Interval interval : Interval.values()) {
+                pstmt.setDouble(1, delta);
+                pstmt.setDouble(2, delta);
+                pstmt.setDouble(3, delta);
+                pstmt.setDouble(4, delta);
+                pstmt.setInt(5, sessionID);
+                pstmt.setString(6, interval.name());
+                pstmt.setString(7, interval.truncate(date).toString());
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not shift the balance candles of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes the candles of the buckets that contain the given date from the transactions in
+     * them. The next stored candle is recomputed as well, because its open is the balance of the
+     * last transaction before it.
+     * @param sessionID id of the session.
+     * @param date date of the changed transaction.
+     */
+    static void rebuild(int sessionID, LocalDateTime date) {
+        String next = "SELECT start FROM balanceCandles WHERE session_id = ? AND interval = ? AND start > ? " +
+                "ORDER BY start LIMIT 1;";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement nextStmt = conn.prepareStatement(next);
+            for (Interval interval : Interval.values()) {
+                LocalDateTime start = interval.truncate(date);
+                nextStmt.setInt(1, sessionID);
+                nextStmt.setString(2, interval.name());
+                nextStmt.setString(3, start.toString());
+                ResultSet resultSet = nextStmt.executeQuery();
+                String nextStart = resultSet.next() ? resultSet.getString(1) : null;
+
+                rebuildBucket(conn, sessionID, interval, start);
+                if (nextStart != null) {
+                    rebuildBucket(conn, sessionID, interval, LocalDateTime.parse(nextStart));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not rebuild the balance candles of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes all candles from the buckets that contain the given date on, in one ordered pass
+     * over the transactions from the date on. Used when many transactions were changed at once.
+     * The transactions before the date are not changed, so the candles that contain the date start
+     * from an aggregate of those transactions instead of reading them one by one.
+     * @param sessionID id of the session.
+     * @param date date of the earliest changed transaction.
+     */
+    static void rebuildFrom(int sessionID, LocalDateTime date) {
+        Interval[] intervals = Interval.values();
+        String[] starts = new String[intervals.length];
+        History[] candles = new History[intervals.length];
+        double[] opens = new double[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            opens[i] = DatabaseCommunication.getBalanceBefore(intervals[i].truncate(date).toString(), 0, sessionID);
+        }
+        double balance = DatabaseCommunication.getBalanceBefore(date.toString(), 0, sessionID);
+
+        String delete = "DELETE FROM balanceCandles WHERE session_id = ? AND interval = ? AND start >= ?;";
+        String insert = "INSERT INTO balanceCandles(session_id, interval, start, open, close, high, low, volume) " +
+                "VALUES(?,?,?,?,?,?,?,?);";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement deleteStmt = conn.prepareStatement(delete);
+            for (Interval interval : intervals) {
+                deleteStmt.setInt(1, sessionID);
+                deleteStmt.setString(2, interval.name());
+                deleteStmt.setString(3, interval.truncate(date).toString());
+                deleteStmt.addBatch();
+            }
+            deleteStmt.executeBatch();
+
+            PreparedStatement aggregateStmt = conn.prepareStatement("SELECT count(*), max(balance), min(balance), " +
+                    "sum(amount) FROM transactions WHERE session_id = ? AND date >= ? AND date < ?;");
+            for (int i = 0; i < intervals.length; i++) {
+                LocalDateTime start = intervals[i].truncate(date);
+                aggregateStmt.setInt(1, sessionID);
+                aggregateStmt.setString(2, start.toString());
+                aggregateStmt.setString(3, date.toString());
+                ResultSet resultSet = aggregateStmt.executeQuery();
+                if (resultSet.next() && resultSet.getInt(1) > 0) {
+                    starts[i] = start.toString();
+                    candles[i] = createCandle(opens[i], start);
+                    candles[i].setClose(balance);
+                    candles[i].setHigh(Math.max(opens[i], resultSet.getDouble(2)));
+                    candles[i].setLow(Math.min(opens[i], resultSet.getDouble(3)));
+                    candles[i].setVolume(resultSet.getDouble(4));
+                }
+            }
+
+            PreparedStatement select = conn.prepareStatement("SELECT date, amount, balance FROM transactions " +
+                    "WHERE session_id = ? AND date >= ? ORDER BY date, id;");
+            select.setInt(1, sessionID);
+            select.setString(2, date.toString());
+            ResultSet resultSet = select.executeQuery();
+            PreparedStatement pstmt = conn.prepareStatement(insert);
+            while (resultSet.next()) {
+                LocalDateTime transactionDate = LocalDateTime.parse(resultSet.getString(1));
+                double amount = resultSet.getDouble(2);
+                double newBalance = resultSet.getDouble(3);
+                for (int i = 0; i < intervals.length; i++) {
+                    LocalDateTime start = intervals[i].truncate(transactionDate);
+                    if (!start.toString().equals(starts[i])) {
+                        addBatch(pstmt, sessionID, intervals[i], starts[i], candles[i]);
+                        starts[i] = start.toString();
+                        candles[i] = createCandle(balance, start);
+                    }
+                    History candle = candles[i];
+                    candle.setClose(newBalance);
+                    candle.setHigh(Math.max(candle.getHigh(), newBalance));
+                    candle.setLow(Math.min(candle.getLow(), newBalance));
+                    candle.setVolume(candle.getVolume() + amount);
+                }
+                balance = newBalance;
+            }
+            for (int i = 0; i < intervals.length; i++) {
+                addBatch(pstmt, sessionID, intervals[i], starts[i], candles[i]);
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not rebuild the balance candles of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    private static void rebuildBucket(Connection conn, int sessionID, Interval interval, LocalDateTime start)
+            throws SQLException {
+        String aggregate = "SELECT count(*), max(balance), min(balance), sum(amount) FROM transactions " +
+                "WHERE session_id = ? AND date >= ? AND date < ?;";
+        String last = "SELECT balance FROM transactions WHERE session_id = ? AND date >= ? AND date < ? " +
+                "ORDER BY date DESC, id DESC LIMIT 1;";
+        String end = interval.plus(start, 1).toString();
+
+        PreparedStatement aggregateStmt = conn.prepareStatement(aggregate);
+        aggregateStmt.setInt(1, sessionID);
+        aggregateStmt.setString(2, start.toString());
+        aggregateStmt.setString(3, end);
+        ResultSet resultSet = aggregateStmt.executeQuery();
+        if (!resultSet.next() || resultSet.getInt(1) == 0) {
+            PreparedStatement deleteStmt = conn.prepareStatement(
+                    "DELETE FROM balanceCandles WHERE session_id = ? AND interval = ? AND start = ?;");
+            deleteStmt.setInt(1, sessionID);
+            deleteStmt.setString(2, interval.name());
+            deleteStmt.setString(3, start.toString());
+            deleteStmt.executeUpdate();
+            return;
+        }
+        double high = resultSet.getDouble(2);
+        double low = resultSet.getDouble(3);
+        double volume = resultSet.getDouble(4);
+
+        PreparedStatement lastStmt = conn.prepareStatement(last);
+        lastStmt.setInt(1, sessionID);
+        lastStmt.setString(2, start.toString());
+        lastStmt.setString(3, end);
+        ResultSet lastResult = lastStmt.executeQuery();
+        double close = lastResult.next() ? lastResult.getDouble(1) : 0;
+        double open = DatabaseCommunication.getBalanceBefore(start.toString(), 0, sessionID);
+
+        PreparedStatement replaceStmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO balanceCandles(session_id, interval, start, open, close, high, low, volume) " +
+                "VALUES(?,?,?,?,?,?,?,?);");
+        replaceStmt.setInt(1, sessionID);
+        replaceStmt.setString(2, interval.name());
+        replaceStmt.setString(3, start.toString());
+        replaceStmt.setDouble(4, open);
+        replaceStmt.setDouble(5, close);
+        replaceStmt.setDouble(6, Math.max(open, high));
+        replaceStmt.setDouble(7, Math.min(open, low));
+        replaceStmt.setDouble(8, volume);
+        replaceStmt.executeUpdate();
+    }
+
+    /**
+     * Gets the balance history of a session as one candle per interval, the last candle is the
+     * interval that contains the current time. Only the stored candles of the window and the
+     * last candle before it are read, buckets without transactions carry the balance over.
+     * @param sessionID id of the session.
+     * @param interval the length of one candle.
+     * @param intervals number of candles.
+     * @return List with the candles, oldest first.
+     */
+    static List<History> getHistory(int sessionID, Interval interval, int intervals) {
+        List<History> history = new ArrayList<>();
+        LocalDateTime end = interval.plus(interval.truncate(LocalDateTime.now()), 1);
+        LocalDateTime bucketStart = interval.plus(end, -intervals);
+        double balance = 0;
+
+        String prior = "SELECT close FROM balanceCandles WHERE session_id = ? AND interval = ? AND start < ? " +
+                "ORDER BY start DESC LIMIT 1;";
+        String window = "SELECT start, open, close, high, low, volume FROM balanceCandles " +
+                "WHERE session_id = ? AND interval = ? AND start >= ? AND start < ? ORDER BY start;";
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement priorStmt = conn.prepareStatement(prior);
+            priorStmt.setInt(1, sessionID);
+            priorStmt.setString(2, interval.name());
+            priorStmt.setString(3, bucketStart.toString());
+            ResultSet priorResult = priorStmt.executeQuery();
+            if (priorResult.next()) {
+                balance = priorResult.getDouble(1);
+            }
+
+            PreparedStatement pstmt = conn.prepareStatement(window);
+            pstmt.setInt(1, sessionID);
+            pstmt.setString(2, interval.name());
+            pstmt.setString(3, bucketStart.toString());
+            pstmt.setString(4, end.toString());
+            ResultSet resultSet = pstmt.executeQuery();
+            while (resultSet.next()) {
+                LocalDateTime start = LocalDateTime.parse(resultSet.getString(1));
+                while (bucketStart.isBefore(start)) {
+                    history.add(createCandle(balance, bucketStart));
+                    bucketStart = interval.plus(bucketStart, 1);
+                }
+                History candle = createCandle(0, start);
+                candle.setOpen(resultSet.getDouble(2));
+                candle.setClose(resultSet.getDouble(3));
+                candle.setHigh(resultSet.getDouble(4));
+                candle.setLow(resultSet.getDouble(5));
+                candle.setVolume(resultSet.getDouble(6));
+                history.add(candle);
+                balance = candle.getClose();
+                bucketStart = interval.plus(bucketStart, 1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the balance candles of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        while (history.size() < intervals) {
+            history.add(createCandle(balance, bucketStart));
+            bucketStart = interval.plus(bucketStart, 1);
+        }
+        return history;
+    }
+
+    /**
+     * Fills the candles of all sessions from the stored transactions, in one ordered pass.
+     * Used by the schema migration that creates the table.
+     * @param conn connection of the migration.
+     */
+    static void backfill(Connection conn) throws SQLException {
+        Interval[] intervals = Interval.values();
+        String[] starts = new String[intervals.length];
+        History[] candles = new History[intervals.length];
+        int session = 0;
+        double balance = 0;
+
+        String insert = "INSERT INTO balanceCandles(session_id, interval, start, open, close, high, low, volume) " +
+                "VALUES(?,?,?,?,?,?,?,?);";
+        try (Statement stmt = conn.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT session_id, date, amount, balance FROM transactions " +
+                     "WHERE session_id IS NOT NULL ORDER BY session_id, date, id");
+             PreparedStatement pstmt = conn.prepareStatement(insert)) {
+            while (resultSet.next()) {
+                if (resultSet.getInt(1) != session) {
+                    for (int i = 0; i < intervals.length; i++) {
+                        addBatch(pstmt, session, intervals[i], starts[i], candles[i]);
+                        starts[i] = null;
+                    }
+                    session = resultSet.getInt(1);
+                    balance = 0;
+                }
+                LocalDateTime date = LocalDateTime.parse(resultSet.getString(2));
+                double amount = resultSet.getDouble(3);
+                double newBalance = resultSet.getDouble(4);
+                for (int i = 0; i < intervals.length; i++) {
+                    LocalDateTime start = intervals[i].truncate(date);
+                    if (!start.toString().equals(starts[i])) {
+                        addBatch(pstmt, session, intervals[i], starts[i], candles[i]);
+                        starts[i] = start.toString();
+                        candles[i] = createCandle(balance, start);
+                    }
+                    History candle = candles[i];
+                    candle.setClose(newBalance);
+                    candle.setHigh(Math.max(candle.getHigh(), newBalance));
+                    candle.setLow(Math.min(candle.getLow(), newBalance));
+                    candle.setVolume(candle.getVolume() + amount);
+                }
+                balance = newBalance;
+            }
+            for (int i = 0; i < intervals.length; i++) {
+                addBatch(pstmt, session, intervals[i], starts[i], candles[i]);
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    private static void addBatch(PreparedStatement pstmt, int session, Interval interval, String start, History candle)
+            throws SQLException {
+        if (start == null) {
+            return;
+        }
+        pstmt.setInt(1, session);
+        pstmt.setString(2, interval.name());
+        pstmt.setString(3, start);
+        pstmt.setDouble(4, candle.getOpen());
+        pstmt.setDouble(5, candle.getClose());
+        pstmt.setDouble(6, candle.getHigh());
+        pstmt.setDouble(7, candle.getLow());
+        pstmt.setDouble(8, candle.getVolume());
+        pstmt.addBatch();
+    }
+
+    private static History createCandle(double balance, LocalDateTime start) {
+        long timestamp = start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() / 1000;
+        return new History(balance, balance, balance, balance, 0, timestamp);
+    }
+}
@@ -0,0 +1,437 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the balance history of recently used sessions in memory, so the balance at a point in time
+ * and the lowest and highest balance between two dates are found in O(log n).
+ * The transactions of a session are kept in a treap ordered by date and id, like the history in the
+ * database. Every node holds how much its transaction changed the balance, and every subtree the sum
+ * and the lowest and highest running balance within it, so the balance after a transaction is the
+ * sum of all nodes before and including it.
+ * An index is loaded from the transactions table on first use and changed together with the stored
+ * balances. While a unit of work that changed the balances of a session has not ended, queries for
+ * that session are answered from the database instead, and the index is dropped if it is rolled back.
+ */
+public class BalanceIndex {
+    private static final int MAX_SESSIONS = 256;
+
+    private static final Map<Integer, Tree> INDEXES =
+            new LinkedHashMap<Integer, Tree>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            };
+    // Number of units of work per session that changed balances and have not ended yet.
+    private static final Map<Integer, Integer> WRITERS = new HashMap<>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong LOADS = new AtomicLong();
+    private static final AtomicLong FALLBACKS = new AtomicLong();
+    private static long generation = 0;
+
+    /**
+     * Gets the balance of a session after all transactions up to and including the given date.
+     * @param sessionID id of the session.
+     * @param date the date, as stored in the transactions table.
+     * @return the balance, or 0 if there is no transaction up to the date.
+     */
+    public static double getBalance(int sessionID, String date) {
+        return query(sessionID, tree -> tree.prefix(date, Integer.MAX_VALUE),
+                () -> DatabaseCommunication.getBalanceBefore(date, Integer.MAX_VALUE, sessionID));
+    }
+
+    /**
+     * Gets the balance of a session at the start and at the end of a period, and the lowest and
+     * highest balance during it. The balance at the start counts as part of the period.
+     * @param sessionID id of the session.
+     * @param from first date of the period.
+     * @param to last date of the period, the transactions on it are included.
+     * @return map with the open, close, low and high balance.
+     */
+    public static Map<String, Double> getRange(int sessionID, String from, String to) {
+        return query(sessionID, tree -> tree.range(from, to), () -> getRangeFromDatabase(sessionID, from, to));
+    }
+
+    /**
+     * Sets the stored balance of a transaction, inserting or moving it to the given date.
+     * The balances of the other transactions stay as they are.
+     * @param sessionID id of the session.
+     * @param id id of the transaction.
+     * @param date date of the transaction.
+     * @param balance the balance after the transaction.
+     */
+    static void put(int sessionID, int id, String date, double balance) {
+        Tree tree = write(sessionID);
+        if (tree != null) {
+            synchronized (INDEXES) {
+                tree.remove(id);
+                tree.insert(id, date, balance);
+            }
+        }
+    }
+
+    /**
+     * Sets the stored balance of a transaction that is already in the index.
+     * @param sessionID id of the session.
+     * @param id id of the transaction.
+     * @param balance the balance after the transaction.
+     */
+    static void setBalance(int sessionID, int id, double balance) {
+        Tree tree = write(sessionID);
+        if (tree != null) {
+            synchronized (INDEXES) {
+                String date = tree.dates.get(id);
+                if (date != null) {
+                    tree.remove(id);
+                    tree.insert(id, date, balance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a transaction, the balances of the other transactions stay as they are.
+     * @param sessionID id of the session.
+     * @param id id of the transaction.
+     */
+    static void remove(int sessionID, int id) {
+        Tree tree = write(sessionID);
+        if (tree != null) {
+            synchronized (INDEXES) {
+                tree.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Adds delta to the balance of every transaction after the given position.
+     * @param sessionID id of the session.
+     * @param date date of the position.
+     * @param id id of the transaction at the position, it is not changed itself.
+     * @param delta the change of the balance.
+     */
+    static void shift(int sessionID, String date, int id, double delta) {
+        Tree tree = write(sessionID);
+        if (tree != null && delta != 0) {
+            synchronized (INDEXES) {
+                tree.shiftAfter(date, id, delta);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of indexed sessions, how many queries were answered from an index, how many
+     * indexes were loaded and how many queries were answered from the database during a write.
+     * @return map with the statistics of the indexes.
+     */
+    public static Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        long transactions = 0;
+        synchronized (INDEXES) {
+            statistics.put("size", (long) INDEXES.size());
+            for (Tree tree : INDEXES.values()) {
+                transactions += tree.dates.size();
+            }
+        }
+        statistics.put("transactions", transactions);
+        statistics.put("hits", HITS.get());
+        statistics.put("loads", LOADS.get());
+        statistics.put("fallbacks", FALLBACKS.get());
+        return statistics;
+    }
+
+    private static <T> T query(int sessionID, Function<Tree, T> query, Supplier<T> fallback) {
+        long loadGeneration;
+        synchronized (INDEXES) {
+            if (WRITERS.containsKey(sessionID)) {
+                FALLBACKS.incrementAndGet();
+                loadGeneration = -1;
+            } else {
+                Tree tree = INDEXES.get(sessionID);
+                if (tree != null) {
+                    HITS.incrementAndGet();
+                    return query.apply(tree);
+                }
+                loadGeneration = generation;
+            }
+        }
+        if (loadGeneration < 0) {
+            return fallback.get();
+        }
+        LOADS.incrementAndGet();
+
+        Tree tree = load(sessionID);
+        synchronized (INDEXES) {
+            // Only keep what was loaded if no balance was written in the meantime.
+            if (generation == loadGeneration && !WRITERS.containsKey(sessionID)) {
+                INDEXES.put(sessionID, tree);
+            }
+            return query.apply(tree);
+        }
+    }
+
+    private static Tree write(int sessionID) {
+        Tree tree;
+        synchronized (INDEXES) {
+            tree = INDEXES.get(sessionID);
+            WRITERS.merge(sessionID, 1, Integer::sum);
+            generation++;
+        }
+        UnitOfWork.afterRollback(() -> {
+            synchronized (INDEXES) {
+                INDEXES.remove(sessionID);
+                generation++;
+            }
+        });
+        UnitOfWork.afterCompletion(() -> {
+            synchronized (INDEXES) {
+                WRITERS.computeIfPresent(sessionID, (id, count) -> count == 1 ? null : count - 1);
+            }
+        });
+        return tree;
+    }
+
+    private static Tree load(int sessionID) {
+        String sql = "SELECT id, date, balance FROM transactions WHERE session_id = ? ORDER BY date, id;";
+        Tree tree = new Tree();
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            ResultSet resultSet = pstmt.executeQuery();
+            double balance = 0;
+            while (resultSet.next()) {
+                double newBalance = resultSet.getDouble(3);
+                tree.append(resultSet.getInt(1), resultSet.getString(2), newBalance - balance);
+                balance = newBalance;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load the balances of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return tree;
+    }
+
+    private static Map<String, Double> getRangeFromDatabase(int sessionID, String from, String to) {
+        String sql = "SELECT count(*), min(balance), max(balance) FROM transactions " +
+                "WHERE session_id = ? AND date >= ? AND date <= ?;";
+        double open = DatabaseCommunication.getBalanceBefore(from, 0, sessionID);
+        double close = DatabaseCommunication.getBalanceBefore(to, Integer.MAX_VALUE, sessionID);
+        double low = Math.min(open, close);
+        double high = Math.max(open, close);
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            pstmt.setString(2, from);
+            pstmt.setString(3, to);
+            ResultSet resultSet = pstmt.executeQuery();
+            if (resultSet.next() && resultSet.getInt(1) > 0) {
+                low = Math.min(low, resultSet.getDouble(2));
+                high = Math.max(high, resultSet.getDouble(3));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the balances of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return createRange(open, close, low, high);
+    }
+
+    private static Map<String, Double> createRange(double open, double close, double low, double high) {
+        Map<String, Double> range = new LinkedHashMap<>();
+        range.put("open", open);
+        range.put("close", close);
+        range.put("low", low);
+        range.put("high", high);
+        return range;
+    }
+
+    private static class Node {
+        private final String date;
+        private final int id;
+        private final int priority;
+        private double value;
+        private Node left;
+        private Node right;
+        // Sum of the values in the subtree, and the lowest and highest running sum within it.
+        private double sum;
+        private double low;
+        private double high;
+
+        private Node(String date, int id, int priority, double value) {
+            this.date = date;
+            this.id = id;
+            this.priority = priority;
+            this.value = value;
+            update();
+        }
+
+        private int compareTo(String date, int id) {
+            int result = this.date.compareTo(date);
+            return result != 0 ? result : Integer.compare(this.id, id);
+        }
+
+        private void update() {
+            double before = left == null ? 0 : left.sum;
+            double own = before + value;
+            sum = own + (right == null ? 0 : right.sum);
+            low = own;
+            high = own;
+            if (left != null) {
+                low = Math.min(low, left.low);
+                high = Math.max(high, left.high);
+            }
+            if (right != null) {
+                low = Math.min(low, own + right.low);
+                high = Math.max(high, own + right.high);
+            }
+        }
+    }
+
+    private static class Tree {
+        private final Random random = new Random();
+        private final Map<Integer, String> dates = new HashMap<>();
+        private Node root;
+
+        private void append(int id, String date, double value) {
+            dates.put(id, date);
+            root = merge(root, new Node(date, id, random.nextInt(), value));
+        }
+
+        private void insert(int id, String date, double balance) {
+            Node[] parts = split(root, date, id);
+            double value = balance - sum(parts[0]);
+            Node right = parts[1];
+            if (right != null) {
+                right = addToFirst(right, -value);
+            }
+            dates.put(id, date);
+            root = merge(merge(parts[0], new Node(date, id, random.nextInt(), value)), right);
+        }
+
+        private void remove(int id) {
+            String date = dates.remove(id);
+            if (date == null) {
+                return;
+            }
+            Node[] before = split(root, date, id);
+            Node[] after = split(before[1], date, id + 1);
+            Node right = after[1];
+            if (right != null) {
+                right = addToFirst(right, after[0].value);
+            }
+            root = merge(before[0], right);
+        }
+
+        private void shiftAfter(String date, int id, double delta) {
+            Node[] parts = split(root, date, id + 1);
+            if (parts[1] != null) {
+                parts[1] = addToFirst(parts[1], delta);
+            }
+            root = merge(parts[0], parts[1]);
+        }
+
+        private double prefix(String date, int id) {
+            double sum = 0;
+            Node node = root;
+            while (node != null) {
+                if (node.compareTo(date, id) < 0) {
+                    sum += (node.left == null ? 0 : node.left.sum) + node.value;
+                    node = node.right;
+                } else {
+                    node = node.left;
+                }
+            }
+            return sum;
+        }
+
+        private Map<String, Double> range(String from, String to) {
+            Node[] before = split(root, from, Integer.MIN_VALUE);
+            Node[] during = split(before[1], to, Integer.MAX_VALUE);
+            double open = sum(before[0]);
+            double close = open;
+            double low = open;
+            double high = open;
+            if (during[0] != null) {
+                close += during[0].sum;
+                low = Math.min(low, open + during[0].low);
+                high = Math.max(high, open + during[0].high);
+            }
+            root = merge(before[0], merge(during[0], during[1]));
+            return createRange(open, close, low, high);
+        }
+
+        private static double sum(Node node) {
+            return node == null ? 0 : node.sum;
+        }
+
+        // Splits into the nodes before the given position and the nodes at or after it.
+        private static Node[] split(Node node, String date, int id) {
+            if (node == null) {
+                return new Node[] {null, null};
+            }
+            if (node.compareTo(date, id) < 0) {
+                Node[] parts = split(node.right, date, id);
+                node.right = parts[0];
+                node.update();
+                parts[0] = node;
+                return parts;
+            }
+            Node[] parts = split(node.left, date, id);
+            node.left = parts[1];
+            node.update();
+            parts[1] = node;
+            return parts;
+        }
+
+        private static Node merge(Node left, Node right) {
+            if (left == null) {
+                return right;
+            }
+            if (right == null) {
+                return left;
+            }
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                left.update();
+                return left;
+            }
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+
+        private static Node addToFirst(Node node, double delta) {
+            if (node.left == null) {
+                node.value += delta;
+            } else {
+                addToFirst(node.left, delta);
+            }
+            node.update();
+            return node;
+        }
+    }
+}
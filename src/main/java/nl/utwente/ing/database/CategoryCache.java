@@ -0,0 +1,100 @@
+package nl.utwente.ing.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the categories of recently used sessions in memory, so mapping transactions to their
+ * category does not read the categories table every time.
+ * At most MAX_SESSIONS sessions are kept, the least recently used session is evicted first.
+ * The categories of a session are invalidated when they are written, and are not cached again
+ * until the unit of work of that write has ended, so uncommitted names are never shared.
+ */
+public class CategoryCache {
+    private static final int MAX_SESSIONS = 1024;
+
+    private static final Map<Integer, Map<Integer, String>> CACHE =
+            new LinkedHashMap<Integer, Map<Integer, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, String>> eldest) {
+                    if (size() > MAX_SESSIONS) {
+                        EVICTIONS.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    // Number of units of work per session that changed categories and have not ended yet.
+    private static final Map<Integer, Integer> WRITERS = new HashMap<>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+    private static long generation = 0;
+
+    /**
+     * Gets the categories of a session, loading them from the database if they are not cached.
+     * @param sessionID id of the session.
+     * @return unmodifiable Map from category id to category name.
+     */
+    public static Map<Integer, String> get(int sessionID) {
+        long loadGeneration;
+        synchronized (CACHE) {
+            Map<Integer, String> categories = CACHE.get(sessionID);
+            if (categories != null) {
+                HITS.incrementAndGet();
+                return categories;
+            }
+            loadGeneration = generation;
+        }
+        MISSES.incrementAndGet();
+
+        Map<Integer, String> categories = Collections.unmodifiableMap(DatabaseCommunication.getCategories(sessionID));
+        synchronized (CACHE) {
+            // Only cache what was loaded if no category was written in the meantime.
+            if (generation == loadGeneration && !WRITERS.containsKey(sessionID)) {
+                CACHE.put(sessionID, categories);
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Invalidates the categories of a session after they have been written.
+     * @param sessionID id of the session.
+     */
+    public static void invalidate(int sessionID) {
+        synchronized (CACHE) {
+            CACHE.remove(sessionID);
+            WRITERS.merge(sessionID, 1, Integer::sum);
+            generation++;
+        }
+        UnitOfWork.afterCompletion(() -> {
+            synchronized (CACHE) {
+                CACHE.remove(sessionID);
+                WRITERS.computeIfPresent(sessionID, (id, count) -> count == 1 ? null : count - 1);
+                generation++;
+            }
+        });
+    }
+
+    /**
+     * Gets the number of cached sessions, hits, misses and evictions of the cache.
+     * @return map with the statistics of the cache.
+     */
+    public static Map<String, Number> getStatistics() {
+        Map<String, Number> statistics = new LinkedHashMap<>();
+        long hits = HITS.get();
+        long misses = MISSES.get();
+        synchronized (CACHE) {
+            statistics.put("size", CACHE.size());
+        }
+        statistics.put("hits", hits);
+        statistics.put("misses", misses);
+        statistics.put("evictions", EVICTIONS.get());
+        statistics.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        return statistics;
+    }
+}
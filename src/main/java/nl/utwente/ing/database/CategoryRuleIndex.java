@@ -0,0 +1,179 @@
+package nl.utwente.ing.database;
+
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.TransactionType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the category rules of recently used sessions compiled in memory, so finding the rule for a
+ * new transaction does not read and test every rule of the session.
+ * The rules are grouped by their description, IBAN and type, where an empty field is a wildcard.
+ * A transaction can only match the eight groups made of its own values and wildcards, so a match
+ * takes at most eight hash lookups. Within a group the rules keep the order in which they were
+ * loaded, and the first rule in that order with an existing category wins, like a linear search.
+ * The rules of a session are invalidated when they are written, in the same way as the
+ * {@link CategoryCache}.
+ */
+public class CategoryRuleIndex {
+    private static final int MAX_SESSIONS = 1024;
+
+    private static final Map<Integer, Rules> CACHE =
+            new LinkedHashMap<Integer, Rules>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Rules> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            };
+    // Number of units of work per session that changed category rules and have not ended yet.
+    private static final Map<Integer, Integer> WRITERS = new HashMap<>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static long generation = 0;
+
+    /**
+     * Finds the first category rule of a session that matches a transaction.
+     * @param sessionID id of the session.
+     * @param description description of the transaction.
+     * @param iban external IBAN of the transaction.
+     * @param type type of the transaction.
+     * @param categories the categories of the session, a rule for a missing category never matches.
+     * @return the matching rule, or null if there is none.
+     */
+    public static CategoryRule match(int sessionID, String description, String iban, TransactionType type,
+                                     Map<Integer, String> categories) {
+        return get(sessionID).match(description, iban, type, categories);
+    }
+
+    /**
+     * Invalidates the category rules of a session after they have been written.
+     * @param sessionID id of the session.
+     */
+    public static void invalidate(int sessionID) {
+        synchronized (CACHE) {
+            CACHE.remove(sessionID);
+            WRITERS.merge(sessionID, 1, Integer::sum);
+            generation++;
+        }
+        UnitOfWork.afterCompletion(() -> {
+            synchronized (CACHE) {
+                CACHE.remove(sessionID);
+                WRITERS.computeIfPresent(sessionID, (id, count) -> count == 1 ? null : count - 1);
+                generation++;
+            }
+        });
+    }
+
+    /**
+     * Gets the number of compiled sessions, hits and misses of the index.
+     * @return map with the statistics of the index.
+     */
+    public static Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        synchronized (CACHE) {
+            statistics.put("size", (long) CACHE.size());
+        }
+        statistics.put("hits", HITS.get());
+        statistics.put("misses", MISSES.get());
+        return statistics;
+    }
+
+    private static Rules get(int sessionID) {
+        long loadGeneration;
+        synchronized (CACHE) {
+            Rules rules = CACHE.get(sessionID);
+            if (rules != null) {
+                HITS.incrementAndGet();
+                return rules;
+            }
+            loadGeneration = generation;
+        }
+        MISSES.incrementAndGet();
+
+        Rules rules = new Rules(DatabaseCommunication.getAllCategoryRules(sessionID));
+        synchronized (CACHE) {
+            // Only cache what was compiled if no rule was written in the meantime.
+            if (generation == loadGeneration && !WRITERS.containsKey(sessionID)) {
+                CACHE.put(sessionID, rules);
+            }
+        }
+        return rules;
+    }
+
+    private static String wildcard(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static class Key {
+        private final String description;
+        private final String iban;
+        private final TransactionType type;
+
+        private Key(String description, String iban, TransactionType type) {
+            this.description = description;
+            this.iban = iban;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(description, key.description) && Objects.equals(iban, key.iban) &&
+                    type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(description, iban, type);
+        }
+    }
+
+    private static class Rules {
+        private final List<CategoryRule> rules;
+        // Positions of the rules in each group, in ascending order.
+        private final Map<Key, List<Integer>> groups = new HashMap<>();
+
+        private Rules(List<CategoryRule> rules) {
+            this.rules = rules == null ? new ArrayList<>() : rules;
+            for (int i = 0; i < this.rules.size(); i++) {
+                CategoryRule rule = this.rules.get(i);
+                Key key = new Key(wildcard(rule.getDescription()), wildcard(rule.getiBan()), rule.getType());
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        private CategoryRule match(String description, String iban, TransactionType type,
+                                   Map<Integer, String> categories) {
+            int best = Integer.MAX_VALUE;
+            for (String d : new String[] {wildcard(description), null}) {
+                for (String i : new String[] {wildcard(iban), null}) {
+                    for (TransactionType t : new TransactionType[] {type, null}) {
+                        List<Integer> group = groups.get(new Key(d, i, t));
+                        if (group == null) {
+                            continue;
+                        }
+                        for (int position : group) {
+                            if (position >= best) {
+                                break;
+                            }
+                            if (categories.containsKey(rules.get(position).getCategoryId())) {
+                                best = position;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            return best == Integer.MAX_VALUE ? null : rules.get(best);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package nl.utwente.ing.database;
+
+import nl.utwente.ing.model.CategoryRule;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Applies new category rules to the transactions that are already in a session.
+ * A rule that matches at most CHUNK_SIZE transactions is applied with one UPDATE in the unit of work
+ * that adds it. A rule that matches more is applied in the background once it is committed, in
+ * chunks of CHUNK_SIZE transactions that each run in their own unit of work, so the request that
+ * adds the rule returns immediately and the database is never locked for long.
+ * A background job stops when its rule or the category of its rule is deleted.
+ */
+public class CategoryRuleJobs {
+    static final int CHUNK_SIZE = 1000;
+    private static final int MAX_JOBS = 1024;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "category-rule-jobs");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<Integer, Job> JOBS = new LinkedHashMap<Integer, Job>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Job> eldest) {
+            return size() > MAX_JOBS && eldest.getValue().isFinished();
+        }
+    };
+
+    /**
+     * Applies a new rule to the transactions of its session that do not have a category yet.
+     * @param cr the new rule.
+     * @param sessionID id of the session.
+     */
+    static void apply(CategoryRule cr, int sessionID) {
+        if (!CategoryCache.get(sessionID).containsKey(cr.getCategoryId())) {
+            UnitOfWork.afterCommit(() -> register(new Job(cr.getId(), sessionID, 0, "done")));
+            return;
+        }
+        int matches = DatabaseCommunication.countCategoryRuleMatches(cr, sessionID);
+        if (matches <= CHUNK_SIZE) {
+            int applied = DatabaseCommunication.applyCategoryRule(cr, sessionID, -1);
+            UnitOfWork.afterCommit(() -> {
+                Job job = new Job(cr.getId(), sessionID, matches, "done");
+                job.applied = applied;
+                register(job);
+            });
+            return;
+        }
+        UnitOfWork.afterCommit(() -> {
+            Job job = new Job(cr.getId(), sessionID, matches, "pending");
+            register(job);
+            EXECUTOR.execute(() -> run(job));
+        });
+    }
+
+    /**
+     * Gets the progress of applying a rule to the history of its session. Jobs are only kept in memory,
+     * so without a job, for example after a restart, or when the last job failed, the state follows
+     * from the transactions that still match the rule. If any do, a new job applies the rule to them.
+     * @param cr the rule.
+     * @param sessionID id of the session.
+     * @return map with the state, the number of matching transactions when the job started and
+     * the number of transactions that got its category.
+     */
+    public static Map<String, Object> getProgress(CategoryRule cr, int sessionID) {
+        Job job;
+        synchronized (JOBS) {
+            job = JOBS.get(cr.getId());
+        }
+        if (job == null || job.sessionID != sessionID || job.state.equals("failed")) {
+            job = resume(cr, sessionID, job);
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("state", job.state);
+        progress.put("matched", job.matched);
+        progress.put("applied", job.applied);
+        return progress;
+    }
+
+    private static Job resume(CategoryRule cr, int sessionID, Job previous) {
+        if (!CategoryCache.get(sessionID).containsKey(cr.getCategoryId())) {
+            return new Job(cr.getId(), sessionID, 0, "cancelled");
+        }
+        int matches = DatabaseCommunication.countCategoryRuleMatches(cr, sessionID);
+        Job job = new Job(cr.getId(), sessionID, matches, matches == 0 ? "done" : "pending");
+        synchronized (JOBS) {
+            Job current = JOBS.get(cr.getId());
+            if (current != previous) {
+                // Another request resumed the rule in the meantime.
+                return current;
+            }
+            JOBS.put(job.id, job);
+        }
+        if (matches > 0) {
+            EXECUTOR.execute(() -> run(job));
+        }
+        return job;
+    }
+
+    private static void register(Job job) {
+        synchronized (JOBS) {
+            JOBS.put(job.id, job);
+        }
+    }
+
+    private static void run(Job job) {
+        job.state = "running";
+        while (!job.isFinished()) {
+            UnitOfWork.begin(true);
+            try {
+                CategoryRule rule = DatabaseCommunication.getCategoryRules(job.id, job.sessionID);
+                if (rule == null || !CategoryCache.get(job.sessionID).containsKey(rule.getCategoryId())) {
+                    UnitOfWork.commit();
+                    job.state = "cancelled";
+                    break;
+                }
+                int applied = DatabaseCommunication.applyCategoryRule(rule, job.sessionID, CHUNK_SIZE);
+                UnitOfWork.commit();
+                job.applied += applied;
+                if (applied < CHUNK_SIZE) {
+                    job.state = "done";
+                }
+            } catch (Exception e) {
+                UnitOfWork.rollback();
+                System.out.println(e.getMessage());
+                job.state = "failed";
+            }
+        }
+    }
+
+    private static class Job {
+        private final int id;
+        private final int sessionID;
+        private final int matched;
+        private volatile int applied;
+        private volatile String state;
+
+        private Job(int id, int sessionID, int matched, String state) {
+            this.id = id;
+            this.sessionID = sessionID;
+            this.matched = matched;
+            this.state = state;
+        }
+
+        private boolean isFinished() {
+            return !state.equals("pending") && !state.equals("running");
+        }
+    }
+}
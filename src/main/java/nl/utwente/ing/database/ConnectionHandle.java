@@ -0,0 +1,84 @@
+package nl.utwente.ing.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proxy around a physical connection that is handed out to the DAO methods.
+ * Every statement created through the handle is remembered and closed when the handle is closed,
+ * after which the given callback decides what happens with the physical connection.
+ */
+class ConnectionHandle implements InvocationHandler {
+
+    private final Connection target;
+    private final Runnable onClose;
+    private final List<Statement> statements = new ArrayList<>();
+    private boolean closed = false;
+
+    private ConnectionHandle(Connection target, Runnable onClose) {
+        this.target = target;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Wraps the given connection.
+     * @param target the physical connection.
+     * @param onClose called once when the handle is closed.
+     * @return Connection object that can be closed by the caller.
+     */
+    static Connection wrap(Connection target, Runnable onClose) {
+        return (Connection) Proxy.newProxyInstance(ConnectionHandle.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandle(target, onClose));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    closeStatements();
+                    onClose.run();
+                }
+                return null;
+            case "isClosed":
+                return closed || target.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                break;
+        }
+        if (closed) {
+            throw new SQLException("Connection handle is already closed");
+        }
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result instanceof Statement) {
+            statements.add((Statement) result);
+        }
+        return result;
+    }
+
+    private void closeStatements() {
+        for (Statement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+            }
+        }
+        statements.clear();
+    }
+}
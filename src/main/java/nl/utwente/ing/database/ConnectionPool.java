@@ -0,0 +1,187 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of SQLite connections.
+ * The connections are opened and configured with the PRAGMAs of the storage profile once,
+ * after that they are borrowed and returned by the DAO methods. Closing a borrowed connection
+ * gives it back to the pool.
+ */
+public class ConnectionPool {
+    private static final String FILENAME = "database.db";
+    private static final String URL = "jdbc:sqlite:" + FILENAME;
+    private static final long BORROW_TIMEOUT_MILLIS = 30000;
+
+    private static ConnectionPool instance;
+
+    private final StorageProfile profile;
+    private final int size;
+    private final Semaphore permits;
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    private ConnectionPool(StorageProfile profile) {
+        this.profile = profile;
+        this.size = profile.getPoolSize();
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * Gets the pool, opening and warming it with the default storage profile on first use.
+     * @return the connection pool.
+     */
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new ConnectionPool(new StorageProfile());
+            instance.warm();
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the pool by one that uses the given storage profile.
+     * Idle connections of the old pool are closed directly, borrowed ones when they are returned.
+     * @param profile the storage profile to apply.
+     */
+    public static synchronized void configure(StorageProfile profile) {
+        if (instance != null) {
+            instance.shutdown();
+        }
+        instance = new ConnectionPool(profile);
+        instance.warm();
+    }
+
+    /**
+     * Borrows a connection from the pool.
+     * @return Connection object, closing it returns it to the pool.
+     * @throws SQLException if no connection became available in time or a new one could not be opened.
+     */
+    public Connection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire()) {
+                waits.incrementAndGet();
+                if (!permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    timeouts.incrementAndGet();
+                    throw new SQLException("Timed out waiting for a database connection");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+
+        Connection conn = idle.poll();
+        try {
+            if (conn != null && conn.isClosed()) {
+                opened.decrementAndGet();
+                conn = null;
+            }
+            if (conn == null) {
+                conn = open();
+            }
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+
+        borrows.incrementAndGet();
+        int current = inUse.incrementAndGet();
+        peakInUse.accumulateAndGet(current, Math::max);
+
+        final Connection physical = conn;
+        return ConnectionHandle.wrap(physical, () -> release(physical));
+    }
+
+    /**
+     * Gets the storage profile the connections of this pool are configured with.
+     * @return StorageProfile object.
+     */
+    public StorageProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Gets the current utilisation of the pool.
+     * @return PoolStatistics object.
+     */
+    public PoolStatistics getStatistics() {
+        return new PoolStatistics(size, opened.get(), inUse.get(), idle.size(), peakInUse.get(),
+                borrows.get(), waits.get(), timeouts.get());
+    }
+
+    private void warm() {
+        for (int i = 0; i < size; i++) {
+            try {
+                idle.offer(open());
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : profile.getPragmas()) {
+                stmt.execute(pragma);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        opened.incrementAndGet();
+        return conn;
+    }
+
+    private void shutdown() {
+        shutdown = true;
+        Connection conn;
+        while ((conn = idle.poll()) != null) {
+            close(conn);
+        }
+    }
+
+    private void close(Connection conn) {
+        opened.decrementAndGet();
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void release(Connection conn) {
+        inUse.decrementAndGet();
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            if (shutdown) {
+                close(conn);
+            } else {
+                idle.offer(conn);
+            }
+        } catch (SQLException e) {
+            // The connection is broken, a new one is opened on the next borrow.
+            close(conn);
+        } finally {
+            permits.release();
+        }
+    }
+}
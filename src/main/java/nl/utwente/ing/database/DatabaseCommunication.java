@@ -5,176 +5,37 @@ import org.springframework.web.bind.annotation.RequestBody;
 
 import java.sql.*;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.*;
+import java.util.function.Consumer;
 
 
 public class DatabaseCommunication {
-	private static final String FILENAME = "database.db";
-	private static final String URL = "jdbc:sqlite:" + FILENAME;
+    // Number of rows the cursor of an export reads from the database at a time.
+    private static final int EXPORT_FETCH_SIZE = 500;
 
 	/**
-	 * Connects to the database.
+	 * Gets a connection to the database.
+	 * Inside a unit of work this is the connection of the unit of work, otherwise one is
+	 * borrowed from the connection pool. Closing the connection returns it.
 	 * @return
 	 * 		Connection object
+	 * @throws IllegalStateException if no connection could be made.
 	 */
-	private static Connection connect() {
-		Connection conn = null;
+	static Connection connect() {
 		try {
-			conn = DriverManager.getConnection(URL);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
-		}
-		return conn;
-	}
-
-	/**
-	 * Takes the given sql and executes it.
-	 * @param sql
-	 * 			The sql message as a string
-	 */
-	private static void executeSQL(String sql) {
-		Connection conn = connect();
-		try {
-			 Statement stmt = conn.createStatement();
-			stmt.execute(sql);
-        } catch (SQLException e) {
-			System.out.println(e.getMessage());
-		} finally {
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-				}
+			if (UnitOfWork.isActive()) {
+				return UnitOfWork.connection();
 			}
+			return ConnectionPool.getInstance().borrow();
+		} catch (SQLException e) {
+			throw new IllegalStateException("Could not get a connection to the database", e);
 		}
 	}
 
-    /**
-     * Generates all tables in the database.
-     */
-    public static void generateTables() {
-        String sql = "CREATE TABLE IF NOT EXISTS categoryRules (" +
-                "id integer PRIMARY KEY," +
-                "description text," +
-                "IBAN text," +
-                "type text," +
-                "categoryId text," +
-                "applyOnHistory boolean" +
-                ");";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS categoryRuleSessions (" +
-                "session integer," +
-                "categoryRule integer" +
-                ");";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS transactions (" +
-                "id integer PRIMARY KEY," +
-                "date text," +
-                "amount real," +
-                "externalIBAN text NOT NULL," +
-                "type text NOT NULL," +
-				"description text," +
-                "categoryID integer," +
-                "balance real" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS categories (" +
-                "id integer PRIMARY KEY," +
-                "name text" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS transactionSessions (" +
-                "session integer," +
-                "transactions text" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS categorySessions (" +
-                "session integer," +
-                "categories text" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS savingGoals (" +
-                "id integer PRIMARY KEY," +
-                "name text NOT NULL," +
-                "goal real NOT NULL," +
-                "savePerMonth real NOT NULL," +
-                "minBalanceRequired real DEFAULT 0," +
-                "balance real NOT NULL" +
-                ");";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS savingGoalSessions (" +
-                "session integer NOT NULL," +
-                "goal_id integer" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS paymentRequests (" +
-                "id integer PRIMARY KEY, " +
-                "description text NOT NULL, " +
-                "due_date text NOT NULL, " +
-                "amount real NOT NULL, " +
-                "number_of_requests NOT NULL, " +
-                "filled boolean DEFAULT false, " +
-                "transactions integer ARRAY[number_requests]" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS paymentRequestSessions (" +
-                "session integer, " +
-                "id integer" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS messages (" +
-                "id integer PRIMARY KEY, " +
-                "message text, " +
-                "date text NOT NULL, " +
-                "read boolean DEFAULT false, " +
-                "type text NOT NULL" +
-                ")";
-        executeSQL(sql);
-
-        sql = "CREATE TABLE IF NOT EXISTS messageSessions (" +
-                "session integer, " +
-                "id integer" +
-                ");";
-        executeSQL(sql);
-    }
-
 	/*
 	 * -------------------- Code for handling sessions --------------------
 	 */
 
-	private static boolean executeSql(String sql, int sessionID, int id) {
-        Connection conn = connect();
-        try {
-
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-            pstmt.setInt(1, sessionID);
-            pstmt.setInt(2, id);
-            ResultSet result = pstmt.executeQuery();
-            return !result.next();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-        return false;
-    }
-
     private static void basicSql(String sql, int sessionID, int id) {
 	    Connection conn = connect();
         try {
@@ -182,9 +43,8 @@ public class DatabaseCommunication {
             pstmt.setInt(1, sessionID);
             pstmt.setInt(2, id);
             pstmt.executeUpdate();
-            conn.close();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not execute " + sql, e);
         } finally {
             if (conn != null) {
                 try {
@@ -195,106 +55,24 @@ public class DatabaseCommunication {
         }
     }
 
-    public static void addPaymentId(int sessionID, int id) {
-		String sql = "SELECT * FROM paymentRequestSessions WHERE session = ? AND id = ?;";
-		if (executeSql(sql, sessionID, id)) {
-			sql = "INSERT INTO paymentRequestSessions VALUES (?, ?);";
-			basicSql(sql, sessionID, id);
-		}
-	}
-
-    public static void addGoalId(int sessionID, int id) {
-	    String sql = "SELECT * FROM savingGoalSessions WHERE session = ? AND goal_id = ?;";
-	    if (executeSql(sql, sessionID, id)) {
-	        sql = "INSERT INTO savingGoalSessions VALUES (?, ?);";
-	        basicSql(sql, sessionID, id);
-        }
-    }
-
-    /**
-     * Adds a new model in the transactionSessions table.
-     * Before doing this it checks if the model is already in the table with the given sessionID.
-     * @param sessionID id of the session.
-     * @param id id of the model.
-     */
-	public static void addTransactionId(int sessionID, int id) {
-        String sql = "SELECT * FROM transactionSessions WHERE session = ? AND transactions = ?;";
-        if(executeSql(sql, sessionID, id)) {
-            sql = "INSERT INTO transactionSessions VALUES (?, ?)";
-            basicSql(sql, sessionID, id);
-        }
-	}
-
-    /**
-     * Adds a new category in the categorySessions table.
-     * Before doing this it checks if the category is already in the table with the given sessionID.
-     * @param sessionID id of the session.
-     * @param id id of the category.
-     */
-	public static void addCategoryId(int sessionID, int id) {
-        String sql = "SELECT * FROM categorySessions WHERE session = ? AND categories = ?;";
-        if (executeSql(sql, sessionID, id)) {
-            sql = "INSERT INTO categorySessions VALUES (?, ?)";
-            basicSql(sql, sessionID, id);
-        }
-	}
-
-    /**
-     * Adds a new categoryRule in the categoryRuleSessions table.
-     * Before doing this it checks if the categoryRule is already in the table with the given sessionID.
-     * @param sessionID id of the session.
-     * @param id id of the categoryRule.
-     */
-	public static void addCategoryRulesId(int sessionID, int id) {
-		String sql = "SELECT * FROM categoryRuleSessions WHERE session = ? AND categoryRule = ?;";
-        if (executeSql(sql, sessionID, id)) {
-            sql = "INSERT INTO categoryRuleSessions VALUES (?, ?)";
-            basicSql(sql, sessionID, id);
-        }
-
-    }
-
-    public static void addMessageId(int sessionID, int id) {
-	    String sql = "SELECT * FROM messageSessions WHERE session = ? AND id = ?;";
-	    if (executeSql(sql, sessionID, id)) {
-	        sql = "INSERT INTO messageSessions VALUES (?, ?)";
-	        basicSql(sql, sessionID, id);
-        }
-    }
     /**
-     * Adds a new session id to every session table.
-     * @param sessionID id of the session.
+     * Adds a range of new sessions to the sessions table in one batch.
+     * @param firstSessionID id of the first session.
+     * @param count number of sessions.
+     * @throws IllegalStateException if the sessions could not be stored.
      */
-	public static void basicSql(int sessionID) {
-		// Add model session
-		String sql = "INSERT INTO transactionSessions(session) VALUES(?)";
+	public static void addSessions(int firstSessionID, int count) {
+		String sql = "INSERT INTO sessions(id) VALUES(?)";
 		Connection conn = connect();
 		try {
             PreparedStatement pstmt  = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
-	        pstmt.executeUpdate();
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
+            for (int i = 0; i < count; i++) {
+                pstmt.setInt(1, firstSessionID + i);
+                pstmt.addBatch();
             }
-        }
-		
-		// Add category session
-		sql = "INSERT INTO categorySessions(session) VALUES(?)";
-		conn = connect();
-		try {
-
-		    PreparedStatement pstmt  = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
-	        pstmt.executeUpdate();
-            conn.close();
+	        pstmt.executeBatch();
 	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
+	        throw new IllegalStateException("Could not add the sessions", e);
 	    } finally {
             if (conn != null) {
                 try {
@@ -303,93 +81,24 @@ public class DatabaseCommunication {
                 }
             }
         }
-
-	    //Add categoryRule session
-        sql = "INSERT INTO categoryRuleSessions(session) VALUES(?)";
-		conn = connect();
-		try {
-
-		    PreparedStatement pstmt = conn.prepareStatement(sql);
-		    pstmt.setInt(1, sessionID);
-		    pstmt.executeUpdate();
-            conn.close();
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        //Add savingGoal session
-        sql = "INSERT INTO savingGoalSessions(session) VALUES(?)";
-		conn = connect();
-        try {
-
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-            pstmt.setInt(1, sessionID);
-            pstmt.executeUpdate();
-            conn.close();
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
     }
 
     /**
-     * Gets the maximum session id.
-     * @return maximum sessionID or -1 if the table is empty.
+     * Gets the ids of all sessions.
+     * @return List with session ids.
      */
-    public static int getMaxSessionId() {
-        String sql = "SELECT max(session) from transactionSessions";
-        Connection conn = connect();
-        try {
-
-            Statement stmt  = conn.createStatement();
-            ResultSet rs    = stmt.executeQuery(sql);
-            // loop through the result set
-            if (rs.next()) {
-                return rs.getInt("max(session)");
-            }
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-        return 0;
-    }
-
-    /**
-     * Checks if the sessionID is valid or not.
-     * @param sessionID id of the session.
-     * @return true if the session is valid, false otherwise.
-     */
-	public static boolean validSessionId(int sessionID) {
-		String sql = "SELECT * FROM transactionSessions " +
-                    "WHERE session = ?;";
+	public static List<Integer> getSessionIds() {
+		String sql = "SELECT id FROM sessions;";
+		List<Integer> sessionIds = new ArrayList<>();
 		Connection conn = connect();
 		try {
-
-		    PreparedStatement pstmt = conn.prepareStatement(sql);
-			pstmt.setInt(1, sessionID);
-			ResultSet rs  = pstmt.executeQuery();
-            return rs.next();
+		    Statement stmt = conn.createStatement();
+			ResultSet rs  = stmt.executeQuery(sql);
+			while (rs.next()) {
+			    sessionIds.add(rs.getInt("id"));
+            }
 		} catch (SQLException e) {
-			System.out.println(e.getMessage());
+			throw new IllegalStateException("Could not read the sessions", e);
 		} finally {
             if (conn != null) {
                 try {
@@ -398,58 +107,22 @@ public class DatabaseCommunication {
                 }
             }
         }
-		return false;
+		return sessionIds;
 	}
 
-    /**
-     * Deletes a transactions from the transactionSessions table
-     * @param id of the model
-     * @param sessionID id of the session
-     */
-	public static void deleteTransactionId(int sessionID, int id) {
-		String sql = "DELETE FROM transactionSessions WHERE session = ? AND transactions = ?;";
-        basicSql(sql, sessionID, id);
-	}
-
-    /**
-     * Deletes a category from the categorySessions table
-     * @param id of the category
-     * @param sessionID id of the session
-     */
-	public static void deleteCategoryId(int sessionID, int id) {
-		String sql = "DELETE FROM categorySessions WHERE session = ? AND categories = ?";
-        basicSql(sql, sessionID, id);
-	}
-
-    /**
-     * Deletes a categoryRule from the categoryRuleSessions table
-     * @param id of the categoryRule
-     * @param sessionID id of the session
-     */
-	public static void deleteCategoryRulesId(int id, int sessionID) {
-	    String sql = "DELETE FROM categoryRuleSessions WHERE session = ? AND categoryRule = ?;";
-        basicSql(sql, sessionID, id);
-    }
-
-    public static void deleteSavingGoalId(int id, int sessionID) {
-	    String sql = "DELETE FROM savingGoalSessions WHERE session = ? AND goal_id = ?;";
-	    basicSql(sql, sessionID, id);
-    }
-
     /**
      * Gets a list with all transactions.
      * @return List with transactions.
      */
     public static List<Transaction> getTransactions(int sessionID) {
 	    List<Transaction> t = new ArrayList<>();
-	    String sql = "SELECT * FROM transactions WHERE id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?);";
+	    String sql = "SELECT * FROM transactions WHERE session_id = ?;";
 	    Connection conn = connect();
 	    try {
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
             pstmt.setInt(1, sessionID);
 	        ResultSet result = pstmt.executeQuery();
-	        Map<Integer, String> c = getCategories();
+	        Map<Integer, String> c = CategoryCache.get(sessionID);
 	        while(result.next()) {
 	            int id = result.getInt("id");
 	            String date = result.getString("date");
@@ -466,7 +139,7 @@ public class DatabaseCommunication {
             }
             return t;
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the transactions of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -475,20 +148,21 @@ public class DatabaseCommunication {
                 }
             }
         }
-        return t;
     }
 
     /**
-     * Returns a Map with all the categories.
-     * Each name is mapped to an id.
-     * @return Map with all categories.
+     * Returns a Map with all the categories of a session.
+     * Each name is mapped to an id. Callers should use the {@link CategoryCache}.
+     * @param sessionID id of the session.
+     * @return Map with the categories of the session.
      */
-    private static Map<Integer, String> getCategories() {
-	    Map<Integer, String> c = new HashMap<>();
-	    String sql = "SELECT * FROM categories;";
+    static Map<Integer, String> getCategories(int sessionID) {
+	    Map<Integer, String> c = new LinkedHashMap<>();
+	    String sql = "SELECT id, name FROM categories WHERE session_id = ?;";
 	    Connection conn = connect();
 	    try {
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
+	        pstmt.setInt(1, sessionID);
 	        ResultSet result = pstmt.executeQuery();
 	        while (result.next()) {
 	            int id = result.getInt("id");
@@ -496,7 +170,7 @@ public class DatabaseCommunication {
 	            c.put(id, description);
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the categories of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -508,6 +182,12 @@ public class DatabaseCommunication {
         return c;
     }
 
+    // Transactions of a session without an existing category that match the description, IBAN and
+    // type of a rule, where an empty description or IBAN matches everything.
+    private static final String CATEGORY_RULE_MATCH = "session_id = ? " +
+            "AND (categoryID IS NULL OR categoryID NOT IN (SELECT id FROM categories WHERE session_id = ?)) " +
+            "AND (? = '' OR description = ?) AND (? = '' OR externalIBAN = ?) AND (? IS NULL OR type = ?)";
+
     private static List<CategoryRule> createCategoryRuleList(ResultSet result) throws SQLException {
         List<CategoryRule> cr = new ArrayList<>();
         while (result.next()) {
@@ -528,51 +208,6 @@ public class DatabaseCommunication {
 	 * -------------------- Code for normal data --------------------
 	 */
 
-	private static int getLastIndex(String sql){
-	    Connection conn = connect();
-        try {
-             Statement stmt  = conn.createStatement();
-             ResultSet rs    = stmt.executeQuery(sql);
-
-            if (rs.next()) {
-                return rs.getInt(1);
-            }
-            return 0;
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-        return -1;
-    }
-
-    /**
-     * Queries the database for the largest category index.
-     * @return
-     * 		int representing the largest category index or -1 if there are no entries
-     */
-    public static int getLastCategoryIndex() {
-        String sql = "SELECT c.id FROM categories AS c WHERE NOT EXISTS " +
-                "(SELECT id FROM categories WHERE id = c.id + 1) LIMIT 0,1";
-        return getLastIndex(sql);
-    }
-
-    /**
-     * Queries the database for the largest model index.
-     * @return
-     * 		int representing the largest model index or -1 if there are no entries
-     */
-    public static int getLastTransactionIndex() {
-        String sql = "SELECT t.id FROM transactions AS t WHERE NOT EXISTS " +
-                "(SELECT id FROM transactions WHERE id = t.id + 1) LIMIT 0,1";
-        return getLastIndex(sql);
-    }
-	
 	/**
 	 * Gets the model from the database with a specific id.
 	 * @param id
@@ -581,8 +216,7 @@ public class DatabaseCommunication {
 	 * 			Transaction object from the database
 	 */
 	public static Transaction getTransaction(int id, int sessionID) {
-		String sql = "SELECT * FROM transactions WHERE id = ? AND id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?)";
+		String sql = "SELECT * FROM transactions WHERE id = ? AND session_id = ?";
 		Connection conn = connect();
 		try {
 	             PreparedStatement pstmt  = conn.prepareStatement(sql);
@@ -595,14 +229,14 @@ public class DatabaseCommunication {
 	        	Transaction t = new Transaction(rs.getInt("id"), rs.getString("date"),
 						rs.getDouble("amount"), rs.getString("externalIBAN"), rs.getString("type"),
 						rs.getString("description"));
-                Map<Integer, String> c = getCategories();
+                Map<Integer, String> c = CategoryCache.get(sessionID);
                 if (c.containsKey(categoryId)) {
                     t.setCategory(new Category(categoryId, c.get(categoryId)));
                 }
 	        	return t;
 	        }
 	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
+	        throw new IllegalStateException("Could not read transaction " + id, e);
 	    } finally {
             if (conn != null) {
                 try {
@@ -625,7 +259,7 @@ public class DatabaseCommunication {
 		
 		Connection conn = connect();
 		String sql = "SELECT * FROM transactions WHERE ";
-		String sql1 = " id IN (SELECT transactions FROM transactionSessions WHERE session = ?)";
+		String sql1 = " session_id = ?";
 		if (categoryID != -1) {
 			sql += "categoryID = ? AND";
 		}
@@ -645,7 +279,7 @@ public class DatabaseCommunication {
 			}
 			ResultSet rs  = pstmt.executeQuery();
 			Transaction t;
-			Map<Integer, String> c = getCategories();
+			Map<Integer, String> c = CategoryCache.get(sessionId);
 	        while (rs.next()) {
 	        	t = new Transaction(rs.getInt("id"), rs.getString("date"), rs.getDouble("amount"), rs.getString("externalIBAN"), rs.getString("type"), rs.getString("description"));
 	        	t.setCategory(new Category(rs.getInt("categoryID"), c.get(rs.getInt("categoryID"))));
@@ -654,7 +288,43 @@ public class DatabaseCommunication {
 	        }
 	        return transactions;
 	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
+	        throw new IllegalStateException("Could not read the transactions of session " + sessionId, e);
+	    } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+	}
+
+    /**
+     * Reads all transactions of a session in the order of the history with a forward-only cursor and
+     * hands them to the consumer one at a time, so they are never all in memory. The connection is
+     * held until the last transaction is consumed, the consumer should not use the database itself.
+     * @param sessionId ID of the session.
+     * @param consumer called for every transaction, an exception it throws ends the read.
+     * @throws IllegalStateException if the transactions could not be read.
+     */
+	public static void forEachTransaction(int sessionId, Consumer<Transaction> consumer) {
+		String sql = "SELECT * FROM transactions WHERE session_id = ? ORDER BY date, id;";
+		Map<Integer, String> c = CategoryCache.get(sessionId);
+		Connection conn = connect();
+		try {
+		    PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		    pstmt.setFetchSize(EXPORT_FETCH_SIZE);
+		    pstmt.setInt(1, sessionId);
+			ResultSet rs = pstmt.executeQuery();
+	        while (rs.next()) {
+	        	Transaction t = new Transaction(rs.getInt("id"), rs.getString("date"), rs.getDouble("amount"), rs.getString("externalIBAN"), rs.getString("type"), rs.getString("description"));
+	        	t.setCategory(new Category(rs.getInt("categoryID"), c.get(rs.getInt("categoryID"))));
+	        	t.setBalance(rs.getDouble("balance"));
+	        	consumer.accept(t);
+	        }
+	    } catch (SQLException e) {
+	        // A read that stops halfway must not look like the end of the transactions.
+	        throw new IllegalStateException("Could not read the transactions of session " + sessionId, e);
 	    } finally {
             if (conn != null) {
                 try {
@@ -663,8 +333,6 @@ public class DatabaseCommunication {
                 }
             }
         }
-		return null;
-		
 	}
 
     /**
@@ -675,8 +343,7 @@ public class DatabaseCommunication {
      *          List of category rules
      */
 	public static List<CategoryRule> getAllCategoryRules(int sessionId) {
-	    String sql = "SELECT * FROM categoryRules WHERE id IN " +
-                "(SELECT categoryRule FROM categoryRuleSessions WHERE session = ?)";
+	    String sql = "SELECT * FROM categoryRules WHERE session_id = ?";
 	    Connection conn = connect();
         try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -684,7 +351,7 @@ public class DatabaseCommunication {
             ResultSet resultSet = pstmt.executeQuery();
             return createCategoryRuleList(resultSet);
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the category rules of session " + sessionId, e);
         } finally {
             if (conn != null) {
                 try {
@@ -693,7 +360,6 @@ public class DatabaseCommunication {
                 }
             }
         }
-        return null;
     }
 	
 	private static void updateCategoryRuleAndTransaction(String sql1, String sql2, int value1, int value2, int value3) {
@@ -708,7 +374,7 @@ public class DatabaseCommunication {
             stmt2.setInt(2, value3);
             stmt2.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not execute " + sql1, e);
         } finally {
             if (conn != null) {
                 try {
@@ -726,7 +392,10 @@ public class DatabaseCommunication {
 	 * 			Transaction object
 	 */
 	public static void addTransaction(Transaction t, int sessionID) {
-		String sql = "INSERT INTO transactions(id, date, amount, externalIBAN, type, description) VALUES(?,?,?,?,?,?)";
+		String date = t.getDate().toString();
+		double balanceBefore = getBalanceBefore(date, t.getId(), sessionID);
+		t.setBalance(balanceBefore + getSignedAmount(t));
+		String sql = "INSERT INTO transactions(id, date, amount, externalIBAN, type, description, session_id, balance) VALUES(?,?,?,?,?,?,?,?)";
 		Connection conn = connect();
 		try {
 		    PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -736,9 +405,12 @@ public class DatabaseCommunication {
             pstmt.setString(4, t.getExternalIBAN());
             pstmt.setString(5, t.getType().toString());
             pstmt.setString(6, t.getDescription());
+            pstmt.setInt(7, sessionID);
+            pstmt.setDouble(8, t.getBalance());
             pstmt.executeUpdate();
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            // The later balances, the index and the candles are only updated for a stored transaction.
+            throw new IllegalStateException("Could not add transaction " + t.getId(), e);
         } finally {
             if (conn != null) {
                 try {
@@ -747,40 +419,193 @@ public class DatabaseCommunication {
                 }
             }
         }
+        BalanceIndex.put(sessionID, t.getId(), date, t.getBalance());
+        if (shiftBalances(date, t.getId(), sessionID, getSignedAmount(t)) == 0) {
+            BalanceCandles.append(sessionID, t.getDate(), t.getAmount(), balanceBefore, t.getBalance());
+        } else {
+            BalanceCandles.rebuild(sessionID, t.getDate());
+        }
 
         updatePaymentRequest(t, sessionID);
 
-        List<CategoryRule> cr = getAllCategoryRules(sessionID);
-		Map<Integer, String> c = getCategories();
-		for (CategoryRule search : cr) {
-		    if ((search.getDescription().equals(t.getDescription()) || search.getDescription().isEmpty()) &&
-                    (search.getType() == t.getType() || search.getType() == null) &&
-                    (search.getiBan().equals(t.getExternalIBAN()) || search.getiBan().isEmpty()) &&
-                    c.containsKey(search.getCategoryId())) {
-		        sql = "UPDATE transactions SET categoryID = ? WHERE id = ?";
-                String sql2 = "UPDATE categoryRules SET applyOnHistory = ? WHERE id = ?";
-                updateCategoryRuleAndTransaction(sql, sql2, search.getCategoryId(), t.getId(), search.getId());
-                break;
+        CategoryRule rule = CategoryRuleIndex.match(sessionID, t.getDescription(), t.getExternalIBAN(), t.getType(),
+                CategoryCache.get(sessionID));
+        if (rule != null) {
+            sql = "UPDATE transactions SET categoryID = ? WHERE id = ?";
+            String sql2 = "UPDATE categoryRules SET applyOnHistory = ? WHERE id = ?";
+            updateCategoryRuleAndTransaction(sql, sql2, rule.getCategoryId(), t.getId(), rule.getId());
+        }
+
+        checkNewHigh(t, sessionID);
+    }
+
+    /**
+     * Adds a batch of new transactions to a session in one pass. The rows are inserted with one
+     * batched statement, the balances of the later transactions are corrected in one ordered pass
+     * and the balance candles are rebuilt once from the earliest new transaction on. Category rules
+     * and payment requests are applied to the transactions in the order of the list, like separate
+     * calls to addTransaction would.
+     * @param transactions the new transactions, with their ids set.
+     * @param sessionID id of the session.
+     * @throws IllegalStateException if the transactions could not be stored.
+     */
+    public static void addTransactions(List<Transaction> transactions, int sessionID) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> categories = CategoryCache.get(sessionID);
+        Map<Integer, CategoryRule> rules = new HashMap<>();
+        for (Transaction t : transactions) {
+            CategoryRule rule = CategoryRuleIndex.match(sessionID, t.getDescription(), t.getExternalIBAN(),
+                    t.getType(), categories);
+            if (rule != null) {
+                t.setCategory(new Category(rule.getCategoryId(), categories.get(rule.getCategoryId())));
+                rules.put(rule.getId(), rule);
+            }
+        }
+
+        List<Transaction> sorted = new ArrayList<>(transactions);
+        sorted.sort(Comparator.comparing((Transaction t) -> t.getDate().toString()).thenComparingInt(Transaction::getId));
+        Transaction first = sorted.get(0);
+        String firstDate = first.getDate().toString();
+
+        String later = "SELECT id, date, balance FROM transactions WHERE session_id = ? " +
+                "AND (date > ? OR (date = ? AND id > ?)) ORDER BY date, id;";
+        String insert = "INSERT INTO transactions(id, date, amount, externalIBAN, type, description, session_id, balance, categoryID) " +
+                "VALUES(?,?,?,?,?,?,?,?,?)";
+        double balance = getBalanceBefore(firstDate, first.getId(), sessionID);
+        Connection conn = connect();
+        try {
+            // Merge the new transactions into the later history: every later transaction moves by the
+            // amounts of the new transactions before it.
+            PreparedStatement pstmt = conn.prepareStatement(later);
+            pstmt.setInt(1, sessionID);
+            pstmt.setString(2, firstDate);
+            pstmt.setString(3, firstDate);
+            pstmt.setInt(4, first.getId());
+            ResultSet resultSet = pstmt.executeQuery();
+            PreparedStatement updateStmt = conn.prepareStatement("UPDATE transactions SET balance = ? WHERE id = ?;");
+            double shift = 0;
+            int next = 0;
+            boolean hasRow = resultSet.next();
+            while (hasRow || next < sorted.size()) {
+                boolean takeNew = !hasRow;
+                if (hasRow && next < sorted.size()) {
+                    Transaction t = sorted.get(next);
+                    int compare = t.getDate().toString().compareTo(resultSet.getString(2));
+                    takeNew = compare < 0 || (compare == 0 && t.getId() < resultSet.getInt(1));
+                }
+                if (takeNew) {
+                    Transaction t = sorted.get(next++);
+                    balance += getSignedAmount(t);
+                    shift += getSignedAmount(t);
+                    t.setBalance(balance);
+                } else {
+                    balance = resultSet.getDouble(3) + shift;
+                    if (shift != 0) {
+                        updateStmt.setDouble(1, balance);
+                        updateStmt.setInt(2, resultSet.getInt(1));
+                        updateStmt.addBatch();
+                    }
+                    hasRow = resultSet.next();
+                }
+            }
+            updateStmt.executeBatch();
+
+            pstmt = conn.prepareStatement(insert);
+            for (Transaction t : sorted) {
+                pstmt.setInt(1, t.getId());
+                pstmt.setString(2, t.getDate().toString());
+                pstmt.setDouble(3, t.getAmount());
+                pstmt.setString(4, t.getExternalIBAN());
+                pstmt.setString(5, t.getType().toString());
+                pstmt.setString(6, t.getDescription());
+                pstmt.setInt(7, sessionID);
+                pstmt.setDouble(8, t.getBalance());
+                if (t.getCategory() != null) {
+                    pstmt.setInt(9, t.getCategory().getId());
+                } else {
+                    pstmt.setNull(9, Types.INTEGER);
+                }
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+
+            pstmt = conn.prepareStatement("UPDATE categoryRules SET applyOnHistory = ? WHERE id = ?");
+            for (int id : rules.keySet()) {
+                pstmt.setBoolean(1, true);
+                pstmt.setInt(2, id);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            // Nothing in memory was changed yet, the unit of work rolls the statements back.
+            throw new IllegalStateException("Could not add the transactions", e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
             }
         }
 
-        List<Transaction> transactions = getTransactions(sessionID);
+        for (Transaction t : sorted) {
+            String date = t.getDate().toString();
+            BalanceIndex.put(sessionID, t.getId(), date, t.getBalance());
+            BalanceIndex.shift(sessionID, date, t.getId(), getSignedAmount(t));
+        }
+        BalanceCandles.rebuildFrom(sessionID, first.getDate());
+
+        updatePaymentRequests(transactions, sessionID);
+        checkNewHigh(transactions.get(transactions.size() - 1), sessionID);
+    }
+
+    private static void checkNewHigh(Transaction t, int sessionID) {
+        LocalDateTime first = getFirstTransactionDate(sessionID);
 		int month1 = t.getDate().getMonthValue();
 		int year1 = t.getDate().getYear();
-		int month2 = transactions.get(0).getDate().getMonthValue();
-		int year2 = transactions.get(0).getDate().getYear();
+		int month2 = first.getMonthValue();
+		int year2 = first.getYear();
 		int difference = month1 - month2 + 12 * (year1 - year2);
 		if ((difference >= 3 || checkForNewBalanceReachedNewHigh(sessionID)) && !unreadHighBalanceMessage(sessionID)) {
-            int id = getLastMessageID() + 1;
+            int id = IdAllocator.MESSAGES.next();
             Message m = new Message(id, "Balance reached new high", t.getDate().toString(), "info");
-            addMessageId(sessionID, id);
-            addMessage(m);
+            AlertEngine.emit(sessionID, m);
         }
     }
 
+    /**
+     * Gets the date of the transaction that was added first to a session, without loading the others.
+     * @param sessionID id of the session.
+     * @return the date, or null if the session has no transactions.
+     */
+    private static LocalDateTime getFirstTransactionDate(int sessionID) {
+	    String sql = "SELECT date FROM transactions WHERE session_id = ? ORDER BY id LIMIT 1;";
+	    Connection conn = connect();
+	    try {
+	        PreparedStatement pstmt = conn.prepareStatement(sql);
+	        pstmt.setInt(1, sessionID);
+	        ResultSet resultSet = pstmt.executeQuery();
+	        if (resultSet.next()) {
+	            return LocalDateTime.parse(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the first transaction of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return null;
+    }
+
     private static boolean checkForNewBalanceReachedNewHigh(int sessionID) {
-	    String sql = "SELECT * FROM messages WHERE message LIKE 'Balance reached new high' AND id IN " +
-                "(SELECT id FROM messageSessions WHERE session = ?)";
+	    AlertEngine.flush();
+	    String sql = "SELECT * FROM messages WHERE message LIKE 'Balance reached new high' AND session_id = ?";
 	    Connection conn = connect();
 	    try {
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -788,7 +613,7 @@ public class DatabaseCommunication {
 	        ResultSet resultSet = pstmt.executeQuery();
 	        return resultSet.next();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the balance history of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -797,8 +622,6 @@ public class DatabaseCommunication {
                 }
             }
         }
-
-        return false;
     }
 
     private static void updateBalance(String sql, double balance, int id) {
@@ -809,7 +632,7 @@ public class DatabaseCommunication {
             pstmt.setInt(2, id);
             pstmt.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not update the balance of transaction " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -820,41 +643,36 @@ public class DatabaseCommunication {
         }
     }
 
-    public static void updateBalance(int sessionID) {
-	    String sql = "SELECT * FROM transactions WHERE id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?) " +
-                "ORDER BY date;";
-	    List<Transaction> transactions = new ArrayList<>();
-	    Connection conn = connect();
-	    try {
+    private static double getSignedAmount(Transaction t) {
+        return t.getType().equals(TransactionType.deposit) ? t.getAmount() : -t.getAmount();
+    }
+
+    /**
+     * Gets the balance after the last transaction that comes before the given position.
+     * The history of a session is ordered by date and then by id, the transaction with the given
+     * id itself is skipped.
+     * @param date date of the position.
+     * @param id id of the transaction at the position.
+     * @param sessionID id of the session.
+     * @return the balance before the position, or 0 if there is no earlier transaction.
+     */
+    static double getBalanceBefore(String date, int id, int sessionID) {
+        String sql = "SELECT balance FROM transactions WHERE session_id = ? AND id <> ? " +
+                "AND (date < ? OR (date = ? AND id < ?)) ORDER BY date DESC, id DESC LIMIT 1;";
+        Connection conn = connect();
+        try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
-	        ResultSet resultSet = pstmt.executeQuery();
-	        double balance = 0;
-	        while (resultSet.next()) {
-                int id = resultSet.getInt(1);
-                String date = resultSet.getString(2);
-                double amount = resultSet.getDouble(3);
-                String externalIBAN = resultSet.getString(4);
-                String type = resultSet.getString(5);
-                String description = resultSet.getString(6);
-                Transaction t = new Transaction(id, date, amount, externalIBAN, type, description);
-                t.setBalance(resultSet.getDouble("balance"));
-                if (t.getBalance() != 0) {
-                    balance = t.getBalance();
-                    transactions.add(t);
-                } else {
-                    if (t.getType().equals(TransactionType.deposit)) {
-                        balance += t.getAmount();
-                    } else {
-                        balance -= t.getAmount();
-                    }
-                    t.setBalance(balance);
-                    transactions.add(t);
-                }
+            pstmt.setInt(1, sessionID);
+            pstmt.setInt(2, id);
+            pstmt.setString(3, date);
+            pstmt.setString(4, date);
+            pstmt.setInt(5, id);
+            ResultSet resultSet = pstmt.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getDouble(1);
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the balance of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -863,10 +681,46 @@ public class DatabaseCommunication {
                 }
             }
         }
-        for (Transaction search : transactions) {
-	        sql = "UPDATE transactions SET balance = ? WHERE id = ?;";
-	        updateBalance(sql, search.getBalance(), search.getId());
+        return 0;
+    }
+
+    /**
+     * Adds delta to the balance of every transaction after the given position, in one statement,
+     * and to the balance candles of the buckets after it.
+     * A transaction appended at the end of the history changes no other rows.
+     * @param date date of the position.
+     * @param id id of the transaction at the position, it is not changed itself.
+     * @param sessionID id of the session.
+     * @param delta the change of the balance.
+     * @return the number of transactions after the position.
+     */
+    private static int shiftBalances(String date, int id, int sessionID, double delta) {
+        int count = 0;
+        String sql = "UPDATE transactions SET balance = balance + ? WHERE session_id = ? AND id <> ? " +
+                "AND (date > ? OR (date = ? AND id > ?));";
+        Connection conn = connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setDouble(1, delta);
+            pstmt.setInt(2, sessionID);
+            pstmt.setInt(3, id);
+            pstmt.setString(4, date);
+            pstmt.setString(5, date);
+            pstmt.setInt(6, id);
+            count = pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not shift the balances of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
         }
+        BalanceCandles.shift(sessionID, LocalDateTime.parse(date), delta);
+        BalanceIndex.shift(sessionID, date, id, delta);
+        return count;
     }
 
     /**
@@ -875,7 +729,8 @@ public class DatabaseCommunication {
      * @param cr CategoryRule object.
      */
     public static void addCategoryRule(CategoryRule cr, int sessionID) {
-        String sql = "INSERT INTO categoryRules VALUES(?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO categoryRules(id, description, IBAN, type, categoryId, applyOnHistory, session_id) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?)";
         Connection conn = connect();
         try {
              PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -885,10 +740,11 @@ public class DatabaseCommunication {
             pstmt.setString(4, cr.getType().toString());
             pstmt.setInt(5, cr.getCategoryId());
             pstmt.setBoolean(6, cr.isApplyOnHistory());
+            pstmt.setInt(7, sessionID);
             pstmt.executeUpdate();
 
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not add the category rule", e);
         } finally {
             if (conn != null) {
                 try {
@@ -897,21 +753,93 @@ public class DatabaseCommunication {
                 }
             }
         }
+        CategoryRuleIndex.invalidate(sessionID);
+        CategoryRuleJobs.apply(cr, sessionID);
+    }
 
-        List<Transaction> t = getTransactions(sessionID);
-        Map<Integer, String> c = getCategories();
-        for (Transaction search : t) {
-            if ((search.getExternalIBAN().equals(cr.getiBan()) || cr.getiBan().isEmpty()) &&
-                    (search.getType() == cr.getType() || (cr.getType() == null)) &&
-                    (search.getDescription().equals(cr.getDescription()) || cr.getDescription().isEmpty()) &&
-                    (search.getCategory() == null) &&
-                    c.containsKey(cr.getCategoryId())) {
-                sql = "UPDATE transactions SET categoryID = ? WHERE id = ?";
-                String sql2 = "UPDATE categoryRules SET applyOnHistory = ? WHERE id = ?";
-                updateCategoryRuleAndTransaction(sql, sql2, cr.getCategoryId(), search.getId(), cr.getId());
+    /**
+     * Counts the transactions of a session that do not have a category yet and match a rule.
+     * @param cr the rule.
+     * @param sessionID id of the session.
+     * @return the number of matching transactions.
+     * @throws IllegalStateException if the transactions could not be counted.
+     */
+    static int countCategoryRuleMatches(CategoryRule cr, int sessionID) {
+        String sql = "SELECT count(*) FROM transactions WHERE " + CATEGORY_RULE_MATCH + ";";
+        Connection conn = connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            setCategoryRuleMatch(pstmt, 1, cr, sessionID);
+            ResultSet resultSet = pstmt.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not count the matches of category rule " + cr.getId(), e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
             }
         }
+        return 0;
+    }
 
+    /**
+     * Sets the category of a rule on the transactions of a session that do not have a category yet
+     * and match the rule, and marks the rule as applied on the history if any transaction matched.
+     * @param cr the rule.
+     * @param sessionID id of the session.
+     * @param limit the largest number of transactions to change, or -1 for all of them.
+     * @return the number of transactions that got the category.
+     * @throws IllegalStateException if the category could not be set.
+     */
+    static int applyCategoryRule(CategoryRule cr, int sessionID, int limit) {
+        String sql = "UPDATE transactions SET categoryID = ? WHERE id IN " +
+                "(SELECT id FROM transactions WHERE " + CATEGORY_RULE_MATCH + " LIMIT ?);";
+        String sql2 = "UPDATE categoryRules SET applyOnHistory = ? WHERE id = ?";
+        int count = 0;
+        Connection conn = connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, cr.getCategoryId());
+            int index = setCategoryRuleMatch(pstmt, 2, cr, sessionID);
+            pstmt.setInt(index, limit);
+            count = pstmt.executeUpdate();
+            if (count > 0) {
+                PreparedStatement stmt2 = conn.prepareStatement(sql2);
+                stmt2.setBoolean(1, true);
+                stmt2.setInt(2, cr.getId());
+                stmt2.executeUpdate();
+            }
+        } catch (SQLException e) {
+            // A failed chunk must not be counted as applied, so the job fails instead of finishing.
+            throw new IllegalStateException("Could not apply category rule " + cr.getId(), e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int setCategoryRuleMatch(PreparedStatement pstmt, int index, CategoryRule cr, int sessionID)
+            throws SQLException {
+        String type = cr.getType() == null ? null : cr.getType().toString();
+        pstmt.setInt(index++, sessionID);
+        pstmt.setInt(index++, sessionID);
+        pstmt.setString(index++, cr.getDescription());
+        pstmt.setString(index++, cr.getDescription());
+        pstmt.setString(index++, cr.getiBan());
+        pstmt.setString(index++, cr.getiBan());
+        pstmt.setString(index++, type);
+        pstmt.setString(index++, type);
+        return index;
     }
 
     /**
@@ -922,8 +850,7 @@ public class DatabaseCommunication {
      */
     public static CategoryRule getCategoryRules(int id, int sessionID) {
 	    CategoryRule cr = null;
-	    String sql = "SELECT * FROM categoryRules WHERE id = ? AND id IN " +
-                "(SELECT categoryRule FROM categoryRuleSessions WHERE session = ?)";
+	    String sql = "SELECT * FROM categoryRules WHERE id = ? AND session_id = ?";
 	    Connection conn = connect();
 	    try {
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -937,7 +864,7 @@ public class DatabaseCommunication {
                 return cr;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read category rule " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -962,8 +889,7 @@ public class DatabaseCommunication {
                 "type = ?, " +
                 "categoryID = ? " +
                 "WHERE id = ? " +
-                "AND id IN " +
-                "(SELECT categoryRule FROM categoryRuleSessions WHERE session = ?)";
+                "AND session_id = ?";
 	    Connection conn = connect();
 	    try {
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -975,7 +901,7 @@ public class DatabaseCommunication {
 	        pstmt.setInt(6, sessionID);
 	        pstmt.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not update category rule " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -984,6 +910,7 @@ public class DatabaseCommunication {
                 }
             }
         }
+        CategoryRuleIndex.invalidate(sessionID);
     }
 
     /**
@@ -992,37 +919,38 @@ public class DatabaseCommunication {
      * @param sessionID of the categoryRule.
      */
     public static void deleteCategoryRule(int id, int sessionID) {
-	    String sql = "DELETE FROM categoryRules WHERE id IN " +
-                "(SELECT categoryRule FROM categoryRuleSessions WHERE session = ?) AND id = ?;";
+	    String sql = "DELETE FROM categoryRules WHERE session_id = ? AND id = ?;";
         basicSql(sql, sessionID, id);
+        CategoryRuleIndex.invalidate(sessionID);
     }
 
-    /**
-     * Gets the first categoryRule id for which there is no id that equals the current plus 1.
-     * @return the Id of the categoryRule or 0 if the table is empty.
-     */
-    public static int getLastCategoryRuleID() {
-	    String sql = "SELECT cr.id FROM categoryRules AS cr WHERE NOT EXISTS " +
-                "(SELECT id FROM categoryRules WHERE id = cr.id + 1) LIMIT 0,1";
-        return getLastIndex(sql);
-    }
-	
 	/**
-	 * Updates the model with the given id
+	 * Updates the model with the given id.
+	 * The balances of the transactions after its old position lose its old amount, the balances
+	 * after its new position get its new amount. A balance set on the model overrides the computed one.
 	 * @param t
 	 * 			The updated model
 	 * @param id
 	 * 			Id of the model
 	 */
 	public static void updateTransaction(Transaction t, int id, int sessionId) {
+		Transaction old = getTransaction(id, sessionId);
+		if (old != null) {
+		    shiftBalances(old.getDate().toString(), id, sessionId, -getSignedAmount(old));
+        }
+		String date = t.getDate().toString();
+		double balanceBefore = getBalanceBefore(date, id, sessionId);
+		if (t.getBalance() == 0) {
+		    t.setBalance(balanceBefore + getSignedAmount(t));
+        }
+
 		String sql = "UPDATE transactions SET date = ? , "
                 + "amount = ? , "
                 + "externalIBAN = ? , "
                 + "type = ? , "
 				+ "description = ? , "
                 + "balance = ? "
-                + "WHERE id = ? AND id IN "
-                + "(SELECT transactions FROM transactionSessions WHERE session = ?)";
+                + "WHERE id = ? AND session_id = ?";
 		Connection conn = connect();
         try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -1038,7 +966,7 @@ public class DatabaseCommunication {
             // update 
             pstmt.executeUpdate();
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            throw new IllegalStateException("Could not update transaction " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1047,6 +975,14 @@ public class DatabaseCommunication {
                 }
             }
         }
+        if (old != null) {
+            BalanceIndex.put(sessionId, id, date, t.getBalance());
+        }
+        shiftBalances(date, id, sessionId, t.getBalance() - balanceBefore);
+        if (old != null) {
+            BalanceCandles.rebuild(sessionId, old.getDate());
+        }
+        BalanceCandles.rebuild(sessionId, t.getDate());
 	}
 	
 	/**
@@ -1055,14 +991,21 @@ public class DatabaseCommunication {
 	 * 			The id of the model to delete
 	 */
 	public static void deleteTransaction(int id, int sessionId) {
-        String sql = "DELETE FROM transactions WHERE id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?) AND id = ?;";
+        Transaction old = getTransaction(id, sessionId);
+        if (old != null) {
+            shiftBalances(old.getDate().toString(), id, sessionId, -getSignedAmount(old));
+        }
+        String sql = "DELETE FROM transactions WHERE session_id = ? AND id = ?;";
         basicSql(sql, sessionId, id);
+        if (old != null) {
+            BalanceIndex.remove(sessionId, id);
+            BalanceCandles.rebuild(sessionId, old.getDate());
+        }
 	}
 	
-	public static void assignCategory(int categoryID, int transactionID) {
-		String sql = "UPDATE transactions SET categoryID = ?"
-                + "WHERE id = ?";
+	public static void assignCategory(int categoryID, int transactionID, int sessionId) {
+		String sql = "UPDATE transactions SET categoryID = ? "
+                + "WHERE id = ? AND session_id = ?";
 		Connection conn = connect();
         try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -1071,10 +1014,11 @@ public class DatabaseCommunication {
             // set the corresponding param
             pstmt.setInt(1, categoryID);
             pstmt.setInt(2, transactionID);
+            pstmt.setInt(3, sessionId);
             // update 
             pstmt.executeUpdate();
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            throw new IllegalStateException("Could not assign a category to transaction " + transactionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1093,8 +1037,7 @@ public class DatabaseCommunication {
 	public static List<Category> getAllCategories(int sessionId) {
 		List<Category> categories = new ArrayList<>();
 		
-		String sql = "SELECT * FROM categories WHERE id IN " +
-                "(SELECT categories FROM categorySessions WHERE session = ?)";
+		String sql = "SELECT * FROM categories WHERE session_id = ?";
 		Connection conn = connect();
 		try {
 		    PreparedStatement pstmt  = conn.prepareStatement(sql);
@@ -1105,7 +1048,7 @@ public class DatabaseCommunication {
 	        }
 	        return categories;
 	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
+	        throw new IllegalStateException("Could not read the categories of session " + sessionId, e);
 	    } finally {
             if (conn != null) {
                 try {
@@ -1114,23 +1057,25 @@ public class DatabaseCommunication {
                 }
             }
         }
-		return null;
 	}
 	/**
 	 * Adds the given category object to the database.
 	 * @param c
 	 * 			Category object
+	 * @param sessionId
+	 * 			Id of the session that owns the category
 	 */
-	public static void addCategory(Category c) {
-		String sql = "INSERT INTO categories VALUES(?,?)";
+	public static void addCategory(Category c, int sessionId) {
+		String sql = "INSERT INTO categories(id, name, session_id) VALUES(?,?,?)";
 		Connection conn = connect();
 		try {
 		    PreparedStatement pstmt = conn.prepareStatement(sql);
             pstmt.setInt(1, c.getId());
             pstmt.setString(2, c.getName());
+            pstmt.setInt(3, sessionId);
             pstmt.executeUpdate();
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            throw new IllegalStateException("Could not add the category", e);
         } finally {
             if (conn != null) {
                 try {
@@ -1139,38 +1084,22 @@ public class DatabaseCommunication {
                 }
             }
         }
-	}
-	
-	/**
-	 * Gets the category from the database with a specific id and in the given session.
-	 * @param id
-	 * 			Id of the category
-	 * @return
-	 * 			Category object from the database
-	 */
-	public static Category getCategory(int id, int sessionId) {
-		String sql = "SELECT * FROM categories WHERE id = ? AND id IN " +
-                "(SELECT categories FROM categorySessions WHERE session = ?)";
-		Connection conn = connect();
-		try {
-             PreparedStatement pstmt  = conn.prepareStatement(sql);
-		    pstmt.setInt(1, id);
-		    pstmt.setInt(2, sessionId);
-	        ResultSet rs  = pstmt.executeQuery();
-	        if (rs.next()) {
-	            return new Category(rs.getInt("id"), rs.getString("name"));
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
+        CategoryCache.invalidate(sessionId);
+	}
+	
+	/**
+	 * Gets the category from the database with a specific id and in the given session.
+	 * @param id
+	 * 			Id of the category
+	 * @return
+	 * 			Category object from the database
+	 */
+	public static Category getCategory(int id, int sessionId) {
+		Map<Integer, String> c = CategoryCache.get(sessionId);
+		if (!c.containsKey(id)) {
+		    return null;
         }
-		return null;
+		return new Category(id, c.get(id));
 	}
 	
 	/**
@@ -1179,9 +1108,9 @@ public class DatabaseCommunication {
 	 * 			The id of the category to delete
 	 */
 	public static void deleteCategory(int id, int sessionId) {
-		String sql = "DELETE FROM categories WHERE id IN " +
-                "(SELECT categories FROM categorySessions WHERE session = ?) AND id = ?";
+		String sql = "DELETE FROM categories WHERE session_id = ? AND id = ?";
         basicSql(sql, sessionId, id);
+        CategoryCache.invalidate(sessionId);
 	}
 	
 	/**
@@ -1193,8 +1122,7 @@ public class DatabaseCommunication {
 	 */
 	public static void updateCategory(Category c, int id, int sessionId) {
 		String sql = "UPDATE categories SET name = ? "
-                + "WHERE id = ? AND id IN "
-                + "(SELECT categories FROM categorySessions WHERE session = ?)";
+                + "WHERE id = ? AND session_id = ?";
         Connection conn = connect();
         try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -1205,7 +1133,7 @@ public class DatabaseCommunication {
             // update 
             pstmt.executeUpdate();
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            throw new IllegalStateException("Could not update category " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1214,100 +1142,46 @@ public class DatabaseCommunication {
                 }
             }
         }
+        CategoryCache.invalidate(sessionId);
 	}
 
-	public static History getBalanceHistory(int sessionID, String interval, int intervals) {
-	    List<Transaction> transactions = new ArrayList<>();
-        String limit = "";
-        LocalDateTime date = LocalDateTime.now();
-        long timestamp = 0;
-        if (interval.equals(Interval.day.toString())) {
-            limit = date.minusDays(intervals).toString();
-            timestamp = date.minusDays(intervals).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()/1000;
-        } else if (interval.equals(Interval.hour.toString())) {
-            limit = date.minusHours(intervals).toString();
-            timestamp = date.minusHours(intervals).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()/1000;
-        } else if (interval.equals(Interval.week.toString())) {
-            limit = date.minusWeeks(intervals).toString();
-            timestamp = date.minusWeeks(intervals).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()/1000;
-        } else if (interval.equals(Interval.month.toString())) {
-            limit = date.minusMonths(intervals).toString();
-            timestamp = date.minusMonths(intervals).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()/1000;
-        } else if (interval.equals(Interval.year.toString())) {
-            limit = date.minusYears(intervals).toString();
-            timestamp = date.minusYears(intervals).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()/1000;
-        }
-	    String sql = "SELECT * FROM transactions t WHERE t.id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?) " +
-                "ORDER BY t.date;";
-        Connection conn = connect();
-	    try {
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
-	        ResultSet resultSet = pstmt.executeQuery();
-	        double balance = 0;
-	        while(resultSet.next()) {
-	        	int id = resultSet.getInt("id");
-	        	String transactionDate = resultSet.getString("date");
-	        	double amount = resultSet.getDouble("amount");
-	        	String externalIBAN = resultSet.getString("externalIBAN");
-	        	String type = resultSet.getString("type");
-	        	String description = resultSet.getString("description");
-	        	Transaction t = new Transaction(id, transactionDate, amount, externalIBAN, type, description);
-	        	if (t.getType().equals(TransactionType.deposit)) {
-	        	    balance += t.getAmount();
-                } else {
-	        	    balance -= t.getAmount();
-                }
-                t.setBalance(balance);
-	        	transactions.add(t);
-			}
-			if (transactions.isEmpty()) {
-	            return new History(0, 0, 0, 0, 0, timestamp);
-            }
-            double volume = 0;
-	        double low = Double.MAX_VALUE;
-	        double high = Double.MIN_VALUE;
-            double open;
-            double close;
-            List<Transaction> transactionList = new ArrayList<>();
-            for (Transaction search : transactions) {
-	            if (search.getDate().toString().compareTo(limit) > 0) {
-	                transactionList.add(search);
-                }
-            }
-            if (transactionList.size() > 0) {
-                for (Transaction search : transactionList) {
-                    if (search.getBalance() > high) {
-                        high = search.getBalance();
-                    }
-                    if (search.getBalance() < low) {
-                        low = search.getBalance();
-                    }
-                    volume += search.getAmount();
-                }
-                open = transactionList.get(0).getBalance();
-                close = transactionList.get(transactionList.size() - 1).getBalance();
-                return new History(open, close, high, low, volume, timestamp);
-            } else {
-                return new History(0, 0, 0, 0, 0, timestamp);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-        return null;
+	/**
+	 * Gets the balance history of a session as one candle per interval, the last candle is the
+	 * interval that contains the current time. Intervals are aligned to the start of the hour,
+	 * day, week, month or year.
+	 * @param sessionID id of the session.
+	 * @param interval the length of one candle.
+	 * @param intervals number of candles.
+	 * @return List with the candles, oldest first.
+	 */
+	public static List<History> getBalanceHistory(int sessionID, Interval interval, int intervals) {
+	    return BalanceCandles.getHistory(sessionID, interval, intervals);
+    }
+
+    /**
+     * Gets the balance of a session after all its transactions up to and including the given date.
+     * @param sessionID id of the session.
+     * @param date the date.
+     * @return the balance at the date.
+     */
+    public static double getBalanceAt(int sessionID, LocalDateTime date) {
+        return BalanceIndex.getBalance(sessionID, date.toString());
+    }
+
+    /**
+     * Gets the balance of a session at the start and the end of a period and the lowest and
+     * highest balance during it.
+     * @param sessionID id of the session.
+     * @param from first date of the period.
+     * @param to last date of the period.
+     * @return map with the open, close, low and high balance.
+     */
+    public static Map<String, Double> getBalanceRange(int sessionID, LocalDateTime from, LocalDateTime to) {
+        return BalanceIndex.getRange(sessionID, from.toString(), to.toString());
     }
 
     public static List<SavingGoal> getSavingGoals(int sessionID) {
-	    String sql = "SELECT * FROM SavingGoals WHERE id IN " +
-                "(SELECT goal_id FROM savingGoalSessions WHERE session = ?);";
+	    String sql = "SELECT * FROM SavingGoals WHERE session_id = ?;";
 	    List<SavingGoal> savingGoalList = new ArrayList<>();
 	    Connection conn = connect();
 	    try {
@@ -1327,7 +1201,7 @@ public class DatabaseCommunication {
             }
             return savingGoalList;
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the saving goals of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1336,11 +1210,11 @@ public class DatabaseCommunication {
                 }
             }
         }
-        return null;
     }
 
-    public static void addSavingGoal(SavingGoal savingGoal) {
-	    String sql = "INSERT INTO SavingGoals VALUES (?, ?, ?, ?, ?, ?);";
+    public static void addSavingGoal(SavingGoal savingGoal, int sessionID) {
+	    String sql = "INSERT INTO SavingGoals(id, name, goal, savePerMonth, minBalanceRequired, balance, session_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?);";
 	    Connection conn = connect();
 	    try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -1350,9 +1224,10 @@ public class DatabaseCommunication {
 	        pstmt.setDouble(4, savingGoal.getSavePerMonth());
 	        pstmt.setDouble(5, savingGoal.getMinBalanceRequired());
 	        pstmt.setDouble(6, savingGoal.getBalance());
+	        pstmt.setInt(7, sessionID);
 	        pstmt.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not add the saving goal", e);
         } finally {
             if (conn != null) {
                 try {
@@ -1364,19 +1239,22 @@ public class DatabaseCommunication {
     }
 
     public static void deleteSavingGoal(int id, int sessionID) {
-	    String sql = "select t.id, t.balance from transactions t, transactionSessions ts where t.id = ts.transactions and ts.session = 1 order by date desc limit 0, 1;";
+	    String sql = "SELECT id, balance, date FROM transactions WHERE session_id = ? ORDER BY date DESC, id DESC LIMIT 0, 1;";
 	    int transactionId = 0;
 	    double balance = 0;
+	    String date = null;
 	    Connection conn = connect();
 	    try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
 	        ResultSet resultSet = pstmt.executeQuery();
 	        if (resultSet.next()) {
 	            transactionId = resultSet.getInt(1);
 	            balance = resultSet.getDouble(2);
+	            date = resultSet.getString(3);
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not delete saving goal " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1386,8 +1264,7 @@ public class DatabaseCommunication {
             }
         }
 
-        sql = "SELECT balance FROM savingGoals WHERE id = ? AND " +
-                "(SELECT goal_id FROM savingGoalSessions WHERE session = ?)";
+        sql = "SELECT balance FROM savingGoals WHERE id = ? AND session_id = ?";
 	    conn = connect();
 	    try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -1398,7 +1275,7 @@ public class DatabaseCommunication {
 	            balance += resultSet.getDouble(1);
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not delete saving goal " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1410,28 +1287,27 @@ public class DatabaseCommunication {
 
         sql = "UPDATE transactions SET balance = ? WHERE id = ?;";
 	    updateBalance(sql, balance, transactionId);
+	    if (date != null) {
+	        BalanceIndex.setBalance(sessionID, transactionId, balance);
+	        BalanceCandles.rebuild(sessionID, LocalDateTime.parse(date));
+        }
 
-        sql = "DELETE FROM SavingGoals WHERE id IN " +
-                "(SELECT goal_id FROM savingGoalSessions WHERE session = ?) AND id = ?;";
+        sql = "DELETE FROM SavingGoals WHERE session_id = ? AND id = ?;";
 	    basicSql(sql, sessionID, id);
+	    AlertEngine.clear(sessionID, AlertEngine.SAVING_GOAL_REACHED + id);
     }
 
-    public static int getLastSavingsID() {
-        String sql = "SELECT s.id FROM SavingGoals as s WHERE NOT EXISTS " +
-                "(SELECT * FROM SavingGoals WHERE id = s.id + 1);";
-        return getLastIndex(sql);
-    }
-
-    public static boolean checkValidSavingGoal(int id) {
-	    String sql = "SELECT * FROM SavingGoals WHERE id = ?;";
+    public static boolean checkValidSavingGoal(int id, int sessionID) {
+	    String sql = "SELECT * FROM SavingGoals WHERE id = ? AND session_id = ?;";
 	    Connection conn = connect();
 	    try {
             PreparedStatement pstmt = conn.prepareStatement(sql);
 	        pstmt.setInt(1, id);
+	        pstmt.setInt(2, sessionID);
 	        ResultSet resultSet = pstmt.executeQuery();
 	        return resultSet.next();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read saving goal " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1440,7 +1316,6 @@ public class DatabaseCommunication {
                 }
             }
         }
-        return false;
     }
 
     public static void updateSavingGoal(SavingGoal sg) {
@@ -1452,7 +1327,7 @@ public class DatabaseCommunication {
 	        pstmt.setInt(2, sg.getId());
 	        pstmt.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not update saving goal " + sg.getId(), e);
         } finally {
             if (conn != null) {
                 try {
@@ -1463,69 +1338,17 @@ public class DatabaseCommunication {
         }
     }
 
+    /**
+     * Lets the saving goals of a session save when its latest transaction is in a new month.
+     * @param sessionID id of the session.
+     */
     public static void updateSavingGoals(int sessionID) {
-	    String sql = "SELECT * FROM transactions WHERE id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?) " +
-                "ORDER BY date DESC LIMIT 0, 2;";
-	    List<Transaction> transactions = new ArrayList<>();
-	    Connection conn = connect();
-	    try {
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
-	        ResultSet resultSet = pstmt.executeQuery();
-	        while (resultSet.next()) {
-	            int id = resultSet.getInt(1);
-	            String date = resultSet.getString(2);
-	            double amount = resultSet.getDouble(3);
-	            String type = resultSet.getString(5);
-	            String externalIBAN = resultSet.getString(4);
-	            String description = resultSet.getString(6);
-	            double balance = resultSet.getDouble(8);
-	            Transaction t = new Transaction(id, date, amount, externalIBAN, type, description);
-	            t.setBalance(balance);
-	            transactions.add(t);
-	        }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        if (transactions.size() > 1) {
-            int year1 = transactions.get(0).getDate().getYear();
-            int year2 = transactions.get(1).getDate().getYear();
-            int month1 = transactions.get(0).getDate().getMonthValue();
-            int month2 = transactions.get(1).getDate().getMonthValue();
-            int timeDifference = month1 - month2 + 12 * (year1 - year2);
-            List<SavingGoal> savingGoals = getSavingGoals(sessionID);
-            Transaction t = transactions.get(0);
-            for (SavingGoal search : savingGoals) {
-                int i = 0;
-                while (t.getBalance() >= search.getMinBalanceRequired() && i < timeDifference
-                        && search.getBalance() < search.getGoal()) {
-                    search.setBalance(search.getBalance() + search.getSavePerMonth());
-                    t.setBalance(t.getBalance() - search.getSavePerMonth());
-                    i++;
-                }
-                updateSavingGoal(search);
-                if (search.getGoal() <= search.getBalance()) {
-                    int id = getLastMessageID() + 1;
-                    Message m = new Message(id, "Saving goal " + search.getName() + " reached", transactions.get(0).getDate().toString(), "info");
-                    addMessage(m);
-                    addMessageId(sessionID, id);
-                }
-                updateTransaction(t, t.getId(), sessionID);
-            }
-        }
+        SavingGoalAccrual.accrue(sessionID);
     }
 
-	public static void addPaymentRequest(PaymentRequest paymentRequest) {
-		String sql = "INSERT INTO paymentRequests(id, description, due_date, amount, number_of_requests) VALUES(?, ?, ?, ?, ?);";
+	public static void addPaymentRequest(PaymentRequest paymentRequest, int sessionID) {
+		String sql = "INSERT INTO paymentRequests(id, description, due_date, amount, number_of_requests, session_id) " +
+                "VALUES(?, ?, ?, ?, ?, ?);";
 		Connection conn = connect();
 		try {
 		    PreparedStatement pstmt = conn.prepareStatement(sql);
@@ -1534,9 +1357,10 @@ public class DatabaseCommunication {
 		    pstmt.setString(3, paymentRequest.getDue_date());
 		    pstmt.setDouble(4, paymentRequest.getAmount());
 		    pstmt.setInt(5, paymentRequest.getNumber_of_requests());
+		    pstmt.setInt(6, sessionID);
 		    pstmt.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not add the payment request", e);
         } finally {
             if (conn != null) {
                 try {
@@ -1545,19 +1369,23 @@ public class DatabaseCommunication {
                 }
             }
         }
+        PaymentRequestIndex.add(sessionID, paymentRequest.getId(), paymentRequest.getDue_date(),
+                paymentRequest.getAmount(), paymentRequest.getNumber_of_requests());
     }
 
     public static List<PaymentRequest> getPaymentRequests(int sessionID) {
-	    String sql = "SELECT * FROM paymentRequests WHERE id IN " +
-                "(SELECT id FROM paymentRequestSessions WHERE session = ?)";
+	    String sql = "SELECT * FROM paymentRequests WHERE session_id = ?";
+	    String fills = "SELECT f.payment_request_id, f.position, t.* FROM paymentRequestFills f " +
+                "JOIN paymentRequests p ON p.id = f.payment_request_id " +
+                "LEFT JOIN transactions t ON t.id = f.transaction_id AND t.session_id = p.session_id " +
+                "WHERE p.session_id = ? ORDER BY f.payment_request_id, f.position;";
 	    List<PaymentRequest> paymentRequests = new ArrayList<>();
 	    Connection conn = connect();
 	    try {
-	        Map<Integer, Transaction> transactionMap = getTrasactions(sessionID);
-
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
 	        pstmt.setInt(1, sessionID);
 	        ResultSet resultSet = pstmt.executeQuery();
+	        Map<Integer, PaymentRequest> paymentRequestMap = new HashMap<>();
 	        while (resultSet.next()) {
 	            int id = resultSet.getInt(1);
 	            String description = resultSet.getString(2);
@@ -1566,62 +1394,34 @@ public class DatabaseCommunication {
 	            int nbOfRequests = resultSet.getInt(5);
 	            boolean filled = resultSet.getBoolean(6);
                 PaymentRequest paymentRequest = new PaymentRequest(id, description, due_date, amount, nbOfRequests);
-	            String string = resultSet.getString(7);
                 paymentRequest.setFilled(filled);
-	            if (string != null) {
-                    String[] strings = string.split(", ");
-                    Transaction[] transactions = new Transaction[nbOfRequests];
-                    int j = 0;
-                    for (int i = 0; i < transactions.length && j < strings.length; i++) {
-                        transactions[i] = transactionMap.get(Integer.parseInt(strings[j]));
-                        j++;
-                    }
-                    paymentRequest.setTransactions(transactions);
-                }
 	            paymentRequests.add(paymentRequest);
+	            paymentRequestMap.put(id, paymentRequest);
             }
-            return paymentRequests;
-        } catch (SQLException e) {
-            e.printStackTrace();
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
+
+            // Only the transactions that filled a request are read, a deleted one leaves its slot empty.
+            Map<Integer, String> categoryMap = CategoryCache.get(sessionID);
+            pstmt = conn.prepareStatement(fills);
+            pstmt.setInt(1, sessionID);
+            resultSet = pstmt.executeQuery();
+            while (resultSet.next()) {
+                PaymentRequest paymentRequest = paymentRequestMap.get(resultSet.getInt("payment_request_id"));
+                int position = resultSet.getInt("position");
+                if (paymentRequest == null || position >= paymentRequest.getTransactions().length ||
+                        resultSet.getObject("id") == null) {
+                    continue;
                 }
+                Transaction t = new Transaction(resultSet.getInt("id"), resultSet.getString("date"),
+                        resultSet.getDouble("amount"), resultSet.getString("externalIBAN"),
+                        resultSet.getString("type"), resultSet.getString("description"));
+                int category = resultSet.getInt("categoryID");
+                t.setBalance(resultSet.getDouble("balance"));
+                t.setCategory(new Category(category, categoryMap.get(category)));
+                paymentRequest.getTransactions()[position] = t;
             }
-        }
-        return paymentRequests;
-    }
-
-    private static Map<Integer, Transaction> getTrasactions(int sessionID) {
-	    String sql = "SELECT * FROM transactions WHERE id IN " +
-                "(SELECT id FROM transactionSessions WHERE session = ?)";
-	    Map<Integer, Transaction> transactionMap = new HashMap<>();
-	    Connection conn = connect();
-	    try {
-	        Map<Integer, String> categoryMap = getCategories();
-
-	        PreparedStatement pstmt = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
-	        ResultSet resultSet = pstmt.executeQuery();
-	        while (resultSet.next()) {
-	            int id = resultSet.getInt(1);
-	            String date = resultSet.getString(2);
-	            double amount = resultSet.getDouble(3);
-	            String IBAN = resultSet.getString(4);
-	            String type = resultSet.getString(5);
-	            String description = resultSet.getString(6);
-	            int category = resultSet.getInt(7);
-	            double balance = resultSet.getDouble(8);
-	            Transaction t = new Transaction(id, date, amount, IBAN, type, description);
-	            t.setBalance(balance);
-	            t.setCategory(new Category(category, categoryMap.get(category)));
-	            transactionMap.put(id, t);
-            }
-            return transactionMap;
+            return paymentRequests;
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the payment requests of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1630,100 +1430,107 @@ public class DatabaseCommunication {
                 }
             }
         }
-        return transactionMap;
     }
 
-    public static int getLastPaymentRequestsId() {
-	    String sql = "SELECT pr.id FROM paymentRequests pr WHERE NOT EXISTS " +
-                "(SELECT id FROM paymentRequests WHERE id = pr.id + 1);";
-	    return getLastIndex(sql);
+    /**
+     * Fills the open payment request with the earliest due date after a deposit, if its amount
+     * matches, and warns once about every open payment request that was due before the transaction.
+     * @param t the new transaction.
+     * @param sessionID id of the session.
+     */
+    public static void updatePaymentRequest(Transaction t, int sessionID) {
+        updatePaymentRequests(Collections.singletonList(t), sessionID);
     }
 
-    public static void updatePaymentRequest(Transaction t, int sessionID) {
-        boolean changed = false;
-        List<PaymentRequest> paymentRequests = getPaymentRequests(sessionID);
-        PaymentRequest paymentRequest = null;
-        if (t.getType().equals(TransactionType.deposit)) {
-            for (PaymentRequest search : paymentRequests) {
-                if (search.getAmount() == t.getAmount() && LocalDateTime.parse(search.getDue_date()).compareTo(t.getDate()) > 0) {
-                    if (search.getTransactions()[search.getTransactions().length - 1] == null) {
-                        paymentRequest = search;
-                        changed = true;
-                        break;
-                    }
+    /**
+     * Applies new transactions to the payment requests of a session in the order of the list, the
+     * fills are written in one batch.
+     * @param transactions the new transactions.
+     * @param sessionID id of the session.
+     * @throws IllegalStateException if the fills could not be stored.
+     */
+    public static void updatePaymentRequests(List<Transaction> transactions, int sessionID) {
+        List<PaymentRequestIndex.Request> requests = new ArrayList<>();
+        List<Transaction> fills = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (Transaction t : transactions) {
+            PaymentRequestIndex.Request paymentRequest = null;
+            if (t.getType().equals(TransactionType.deposit)) {
+                paymentRequest = PaymentRequestIndex.findOpen(sessionID, t.getAmount(), t.getDate());
+            }
+
+            for (PaymentRequestIndex.Request overdue : PaymentRequestIndex.takeOverdue(sessionID, t.getDate())) {
+                AlertEngine.raise(sessionID, AlertEngine.PAYMENT_REQUEST_OVERDUE + overdue.id,
+                        () -> new Message(IdAllocator.MESSAGES.next(), "One payment request has not been filled",
+                                t.getDate().toString(), "warning"));
+            }
+
+            if (paymentRequest != null) {
+                PaymentRequestIndex.fill(sessionID, paymentRequest, t.getId());
+                requests.add(paymentRequest);
+                fills.add(t);
+                positions.add(paymentRequest.transactions.size() - 1);
+                if (paymentRequest.isFilled()) {
+                    int id = IdAllocator.MESSAGES.next();
+                    Message m = new Message(id, "One payment request has been filled", t.getDate().toString(), "info");
+                    AlertEngine.emit(sessionID, m);
                 }
             }
         }
-
-        for (PaymentRequest search : paymentRequests) {
-            if (LocalDateTime.parse(search.getDue_date()).compareTo(t.getDate()) < 0) {
-                int id = getLastMessageID() + 1;
-                Message m = new Message(id, "One payment request has not been filled", t.getDate().toString(), "warning");
-                addMessage(m);
-                addMessageId(sessionID, id);
-            }
+        if (fills.isEmpty()) {
+            return;
         }
 
-        if (changed) {
-            for (int i = 0; i < paymentRequest.getTransactions().length; i++) {
-                if (paymentRequest.getTransactions()[i] == null) {
-                    paymentRequest.getTransactions()[i] = t;
-                    break;
-                }
-            }
-
-            if (paymentRequest.getTransactions()[paymentRequest.getTransactions().length - 1] != null) {
-                paymentRequest.setFilled(true);
-                System.out.println("am intrat aci");
-                int id = getLastMessageID() + 1;
-                Message m = new Message(id, "One payment request has been filled",
-                        paymentRequest.getTransactions()[paymentRequest.getTransactions().length - 1].getDate().toString(), "info");
-                addMessage(m);
-                addMessageId(sessionID, id);
-            }
-
-            String string = "";
-
-            for (int i = 0; i < paymentRequest.getTransactions().length; i++) {
-                if (paymentRequest.getTransactions()[i] != null) {
-                    string += paymentRequest.getTransactions()[i].getId();
-                    if (i < paymentRequest.getTransactions().length - 1 && paymentRequest.getTransactions()[i + 1] != null) {
-                        string += ", ";
-                    }
+        String sql = "INSERT INTO paymentRequestFills(payment_request_id, position, transaction_id) VALUES(?, ?, ?);";
+        Connection conn = connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            PreparedStatement filledStmt = conn.prepareStatement("UPDATE paymentRequests SET filled = ? WHERE id = ?;");
+            for (int i = 0; i < fills.size(); i++) {
+                PaymentRequestIndex.Request paymentRequest = requests.get(i);
+                pstmt.setInt(1, paymentRequest.id);
+                pstmt.setInt(2, positions.get(i));
+                pstmt.setInt(3, fills.get(i).getId());
+                pstmt.addBatch();
+                if (positions.get(i) == paymentRequest.numberOfRequests - 1) {
+                    filledStmt.setBoolean(1, true);
+                    filledStmt.setInt(2, paymentRequest.id);
+                    filledStmt.addBatch();
                 }
             }
-
-            String sql = "UPDATE paymentRequests SET filled = ?, transactions = ? WHERE id = ?;";
-            Connection conn = connect();
-            try {
-
-                PreparedStatement pstmt = conn.prepareStatement(sql);
-                pstmt.setBoolean(1, paymentRequest.isFilled());
-                pstmt.setString(2, string);
-                pstmt.setInt(3, paymentRequest.getId());
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            } finally {
-                if (conn != null) {
-                    try {
-                        conn.close();
-                    } catch (SQLException e) {
-                    }
+            pstmt.executeBatch();
+            filledStmt.executeBatch();
+        } catch (SQLException e) {
+            // The index already holds the fills, it is dropped when the unit of work rolls back.
+            throw new IllegalStateException("Could not store the payment request fills of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
                 }
             }
         }
     }
 
-    public static List<Message> getMessages(int sessionID) {
-	    String sql = "SELECT * FROM messages WHERE id IN " +
-                "(SELECT id FROM messageSessions WHERE session = ?);";
+    public static List<Message> getMessages(int sessionID, int cursor, int limit, boolean unread, MessageType messageType) {
+	    AlertEngine.flush();
+	    String sql = "SELECT * FROM messages WHERE session_id = ? AND id > ?" +
+                (unread ? " AND read = 0" : "") +
+                (messageType != null ? " AND type = ?" : "") +
+                " ORDER BY id LIMIT ?;";
 	    List<Message> messages = new ArrayList<>();
         Connection conn = connect();
 	    try {
 
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
-	        pstmt.setInt(1, sessionID);
+	        int index = 1;
+	        pstmt.setInt(index++, sessionID);
+	        pstmt.setInt(index++, cursor);
+	        if (messageType != null) {
+	            pstmt.setString(index++, messageType.toString());
+            }
+	        pstmt.setInt(index, limit);
 	        ResultSet resultSet = pstmt.executeQuery();
 	        while (resultSet.next()) {
 	            int id = resultSet.getInt(1);
@@ -1738,7 +1545,7 @@ public class DatabaseCommunication {
             conn.close();
             return messages;
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the messages of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1748,20 +1555,20 @@ public class DatabaseCommunication {
                 }
             }
         }
-        return messages;
     }
 
     public static void updateMessage(int id, int sessionID) {
-	    String sql = "UPDATE messages SET read = 1 WHERE id = ? AND id IN " +
-                "(SELECT id FROM messageSessions WHERE session = ?);";
+	    String sql = "UPDATE messages SET read = 1 WHERE id = ? AND session_id = ? AND read = 0;";
 	    Connection conn = connect();
 	    try {
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
 	        pstmt.setInt(1, id);
 	        pstmt.setInt(2, sessionID);
-	        pstmt.executeUpdate();
+	        if (pstmt.executeUpdate() > 0) {
+	            addUnreadMessages(conn, sessionID, -1);
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not update message " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1772,21 +1579,38 @@ public class DatabaseCommunication {
         }
     }
 
-    public static void addMessage(Message m) {
-	    String sql = "INSERT INTO messages VALUES(?, ?, ?, ?, ?);";
+    /**
+     * Changes the counter of unread messages of a session, on the connection that changed the messages.
+     * @param conn the connection.
+     * @param sessionID id of the session.
+     * @param delta number of messages that became unread, negative if they were read.
+     */
+    static void addUnreadMessages(Connection conn, int sessionID, int delta) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE sessions SET unread_messages = unread_messages + ? WHERE id = ?;");
+        pstmt.setInt(1, delta);
+        pstmt.setInt(2, sessionID);
+        pstmt.executeUpdate();
+    }
+
+    /**
+     * Gets the number of unread messages of a session from its counter.
+     * @param sessionID id of the session.
+     * @return the number of unread messages.
+     */
+    public static int getUnreadMessageCount(int sessionID) {
+	    AlertEngine.flush();
+	    String sql = "SELECT unread_messages FROM sessions WHERE id = ?;";
 	    Connection conn = connect();
 	    try {
-
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
-	        pstmt.setInt(1, m.getId());
-	        pstmt.setString(2, m.getMessage());
-	        pstmt.setString(3, m.getDate());
-	        pstmt.setBoolean(4, m.isRead());
-	        pstmt.setString(5, m.getType().toString());
-	        pstmt.executeUpdate();
-            conn.close();
+	        pstmt.setInt(1, sessionID);
+	        ResultSet resultSet = pstmt.executeQuery();
+	        if (resultSet.next()) {
+	            return resultSet.getInt(1);
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not count the unread messages of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1795,11 +1619,12 @@ public class DatabaseCommunication {
                 }
             }
         }
+        return 0;
     }
 
     public static Message getMessage(int id, int sessionID) {
-	    String sql = "SELECT * FROM messages WHERE id = ? AND id IN " +
-                "(SELECT id FROM messageSessions WHERE session = ?);";
+	    AlertEngine.flush();
+	    String sql = "SELECT * FROM messages WHERE id = ? AND session_id = ?;";
 	    Message m;
 	    Connection conn = connect();
 	    try {
@@ -1807,7 +1632,7 @@ public class DatabaseCommunication {
 	        pstmt.setInt(1, id);
 	        pstmt.setInt(2, sessionID);
             ResultSet resultSet = pstmt.executeQuery();
-            if (resultSet != null) {
+            if (resultSet.next()) {
                 int id1 = resultSet.getInt(1);
                 String message = resultSet.getString(2);
                 String date = resultSet.getString(3);
@@ -1818,7 +1643,7 @@ public class DatabaseCommunication {
                 return m;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read message " + id, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1830,26 +1655,20 @@ public class DatabaseCommunication {
         return null;
     }
 
-    public static int getLastMessageID() {
-	    String sql = "SELECT m.id FROM messages m WHERE NOT EXISTS " +
-                "(SELECT id FROM messages WHERE id = m.id + 1);";
-	    return getLastIndex(sql);
-    }
-
     public static void checkBalance(int sessionID, String date) {
-	    String sql = "SELECT balance FROM transactions WHERE id IN " +
-                "(SELECT transactions FROM transactionSessions WHERE session = ?) ORDER BY id DESC LIMIT 0,1";
+	    // The current balance is the balance of the last transaction in the order of the history.
+	    String sql = "SELECT balance FROM transactions WHERE session_id = ? ORDER BY date DESC, id DESC LIMIT 1";
 	    double balance = 0;
 	    Connection conn = connect();
 	    try {
-
 	        PreparedStatement pstmt = conn.prepareStatement(sql);
 	        pstmt.setInt(1, sessionID);
 	        ResultSet resultSet = pstmt.executeQuery();
-	        balance = resultSet.getDouble(1);
-
+	        if (resultSet.next()) {
+	            balance = resultSet.getDouble(1);
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the balance of session " + sessionID, e);
         } finally {
             if (conn != null) {
                 try {
@@ -1859,17 +1678,13 @@ public class DatabaseCommunication {
             }
         }
 
-        if (balance < 0) {
-            int id = getLastMessageID() + 1;
-            Message m = new Message(id, "Balance is negative", date, "warning");
-            addMessage(m);
-            addMessageId(sessionID, id);
-        }
+        AlertEngine.update(sessionID, AlertEngine.BALANCE_NEGATIVE, balance < 0,
+                () -> new Message(IdAllocator.MESSAGES.next(), "Balance is negative", date, "warning"));
     }
 
     public static boolean unreadHighBalanceMessage(int sessionID) {
-	    String sql = "SELECT * FROM messages WHERE type LIKE 'info' AND message LIKE 'Balance reached new high' AND id IN" +
-                "(SELECT id FROM messageSessions WHERE session = ?) AND read = 0;";
+	    AlertEngine.flush();
+	    String sql = "SELECT * FROM messages WHERE type LIKE 'info' AND message LIKE 'Balance reached new high' AND session_id = ? AND read = 0;";
 	    Connection conn = connect();
 	    try {
 
@@ -1878,7 +1693,148 @@ public class DatabaseCommunication {
             ResultSet resultSet = pstmt.executeQuery();
             return resultSet.next();
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read the messages of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+    }
+
+	/*
+	 * -------------------- Code for statement imports --------------------
+	 */
+
+    public static void addImport(StatementImport statementImport, int sessionID) {
+	    String sql = "INSERT INTO imports(id, session_id, format, status, started) VALUES (?, ?, ?, ?, ?);";
+	    Connection conn = connect();
+	    try {
+	        PreparedStatement pstmt = conn.prepareStatement(sql);
+	        pstmt.setInt(1, statementImport.getId());
+	        pstmt.setInt(2, sessionID);
+	        pstmt.setString(3, statementImport.getFormat().toString());
+	        pstmt.setString(4, statementImport.getStatus());
+	        pstmt.setString(5, statementImport.getStarted());
+	        pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not add the import", e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the progress of an import, in the same unit of work as the rows it counts.
+     * @param statementImport the import.
+     * @throws SQLException if the progress could not be stored.
+     */
+    public static void updateImport(StatementImport statementImport) throws SQLException {
+	    String sql = "UPDATE imports SET status = ?, rows_read = ?, imported = ?, duplicates = ?, invalid = ?, " +
+                "duration_millis = ? WHERE id = ?;";
+	    Connection conn = connect();
+	    try {
+	        PreparedStatement pstmt = conn.prepareStatement(sql);
+	        pstmt.setString(1, statementImport.getStatus());
+	        pstmt.setInt(2, statementImport.getRowsRead());
+	        pstmt.setInt(3, statementImport.getImported());
+	        pstmt.setInt(4, statementImport.getDuplicates());
+	        pstmt.setInt(5, statementImport.getInvalid());
+	        pstmt.setLong(6, statementImport.getDurationMillis());
+	        pstmt.setInt(7, statementImport.getId());
+	        pstmt.executeUpdate();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    public static List<StatementImport> getImports(int sessionID) {
+	    return findImports("SELECT * FROM imports WHERE session_id = ? ORDER BY id;", sessionID, 0);
+    }
+
+    public static StatementImport getImport(int id, int sessionID) {
+	    List<StatementImport> imports = findImports("SELECT * FROM imports WHERE session_id = ? AND id = ?;", sessionID, id);
+	    return imports.isEmpty() ? null : imports.get(0);
+    }
+
+    private static List<StatementImport> findImports(String sql, int sessionID, int id) {
+	    List<StatementImport> imports = new ArrayList<>();
+	    Connection conn = connect();
+	    try {
+	        PreparedStatement pstmt = conn.prepareStatement(sql);
+	        pstmt.setInt(1, sessionID);
+	        if (id != 0) {
+	            pstmt.setInt(2, id);
+            }
+	        ResultSet resultSet = pstmt.executeQuery();
+	        while (resultSet.next()) {
+	            StatementImport statementImport = new StatementImport(resultSet.getInt("id"),
+                        resultSet.getString("format"), resultSet.getString("status"), resultSet.getString("started"));
+	            statementImport.setRowsRead(resultSet.getInt("rows_read"));
+	            statementImport.setImported(resultSet.getInt("imported"));
+	            statementImport.setDuplicates(resultSet.getInt("duplicates"));
+	            statementImport.setInvalid(resultSet.getInt("invalid"));
+	            statementImport.setDurationMillis(resultSet.getLong("duration_millis"));
+	            imports.add(statementImport);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the imports of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return imports;
+    }
+
+    /**
+     * Records the fingerprints of imported rows with one batched statement. A fingerprint that was
+     * recorded before, by this or an earlier import of the session, is left as it is.
+     * @param rows the transactions of the rows by their fingerprint, with their ids set.
+     * @param sessionID id of the session.
+     * @return the transactions of the fingerprints that are new, in the order of the map.
+     * @throws SQLException if the fingerprints could not be recorded.
+     */
+    public static List<Transaction> addImportedTransactions(Map<String, Transaction> rows, int sessionID)
+            throws SQLException {
+	    String sql = "INSERT OR IGNORE INTO importedTransactions(session_id, fingerprint, transaction_id) VALUES (?, ?, ?);";
+	    List<Transaction> added = new ArrayList<>();
+	    if (rows.isEmpty()) {
+	        return added;
+        }
+	    Connection conn = connect();
+	    try {
+	        PreparedStatement pstmt = conn.prepareStatement(sql);
+	        for (Map.Entry<String, Transaction> row : rows.entrySet()) {
+	            pstmt.setInt(1, sessionID);
+	            pstmt.setString(2, row.getKey());
+	            pstmt.setInt(3, row.getValue().getId());
+	            pstmt.addBatch();
+            }
+	        // Every statement reports whether it inserted its row, an ignored row is a duplicate.
+	        int[] counts = pstmt.executeBatch();
+	        int i = 0;
+	        for (Transaction t : rows.values()) {
+	            if (counts[i++] > 0) {
+	                added.add(t);
+                }
+            }
         } finally {
             if (conn != null) {
                 try {
@@ -1887,8 +1843,36 @@ public class DatabaseCommunication {
                 }
             }
         }
+        return added;
+    }
 
-        return false;
+    /**
+     * Reads the storage PRAGMAs as they are in effect on a pooled connection.
+     * @return Map with the value of every storage PRAGMA.
+     */
+    public static Map<String, String> getStorageSettings() {
+	    String[] pragmas = {"journal_mode", "synchronous", "cache_size", "mmap_size", "busy_timeout", "page_size"};
+	    Map<String, String> settings = new LinkedHashMap<>();
+	    Connection conn = connect();
+	    try {
+	        Statement stmt = conn.createStatement();
+	        for (String pragma : pragmas) {
+	            ResultSet resultSet = stmt.executeQuery("PRAGMA " + pragma);
+	            if (resultSet.next()) {
+	                settings.put(pragma, resultSet.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the storage settings", e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return settings;
     }
 
 	public static void main(String[] args) {
@@ -0,0 +1,78 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out new ids for the tables of the application without querying the database.
+ * Every table has a counter that is seeded once with the largest id in the table, after that
+ * an id is allocated with a single atomic increment, so concurrent requests never get the same id.
+ * An id of a unit of work that is rolled back is not reused, which leaves a gap.
+ */
+public enum IdAllocator {
+    SESSIONS("sessions"),
+    TRANSACTIONS("transactions"),
+    CATEGORIES("categories"),
+    CATEGORY_RULES("categoryRules"),
+    SAVING_GOALS("savingGoals"),
+    PAYMENT_REQUESTS("paymentRequests"),
+    MESSAGES("messages"),
+    IMPORTS("imports");
+
+    private final String table;
+    private final AtomicInteger last = new AtomicInteger();
+    private volatile boolean seeded = false;
+
+    IdAllocator(String table) {
+        this.table = table;
+    }
+
+    /**
+     * Seeds all counters, should be called once at startup after the schema is migrated.
+     */
+    public static void seedAll() {
+        for (IdAllocator allocator : values()) {
+            allocator.seed();
+        }
+    }
+
+    /**
+     * Allocates a new id.
+     * @return id that is larger than every id in the table and every id allocated before.
+     */
+    public int next() {
+        if (!seeded) {
+            seed();
+        }
+        return last.incrementAndGet();
+    }
+
+    /**
+     * Allocates a block of consecutive ids with a single increment.
+     * @param count number of ids, at least 1.
+     * @return the first id of the block.
+     */
+    public int next(int count) {
+        if (!seeded) {
+            seed();
+        }
+        return last.getAndAdd(count) + 1;
+    }
+
+    private synchronized void seed() {
+        if (seeded) {
+            return;
+        }
+        try (Connection conn = ConnectionPool.getInstance().borrow();
+             Statement stmt = conn.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT max(id) FROM " + table)) {
+            last.set(resultSet.next() ? resultSet.getInt(1) : 0);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the largest id of " + table, e);
+        }
+        seeded = true;
+    }
+}
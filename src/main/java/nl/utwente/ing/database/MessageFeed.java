@@ -0,0 +1,124 @@
+package nl.utwente.ing.database;
+
+import nl.utwente.ing.model.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers new messages to the subscribers of their session, instead of letting clients poll for them.
+ * A message is published once the unit of work that stored it has committed. Every subscription
+ * buffers at most BUFFER_SIZE messages; a subscriber that falls that far behind is marked as
+ * overflowed and should read the messages it missed from the database.
+ */
+public class MessageFeed {
+    static final int BUFFER_SIZE = 256;
+
+    private static final Map<Integer, List<Subscription>> SUBSCRIPTIONS = new HashMap<>();
+
+    /**
+     * A subscription to the new messages of one session.
+     */
+    public static class Subscription {
+        private final int sessionID;
+        private final Runnable listener;
+        private final ArrayBlockingQueue<Message> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        private volatile boolean overflowed = false;
+
+        private Subscription(int sessionID, Runnable listener) {
+            this.sessionID = sessionID;
+            this.listener = listener;
+        }
+
+        /**
+         * Takes the buffered messages.
+         * @return List with the messages, oldest first.
+         */
+        public List<Message> poll() {
+            List<Message> messages = new ArrayList<>();
+            buffer.drainTo(messages);
+            return messages;
+        }
+
+        /**
+         * @return true if a message was dropped because the buffer was full.
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Stops the subscription.
+         */
+        public void close() {
+            synchronized (SUBSCRIPTIONS) {
+                List<Subscription> subscriptions = SUBSCRIPTIONS.get(sessionID);
+                if (subscriptions != null) {
+                    subscriptions.remove(this);
+                    if (subscriptions.isEmpty()) {
+                        SUBSCRIPTIONS.remove(sessionID);
+                    }
+                }
+            }
+        }
+
+        private void offer(Message message) {
+            if (!buffer.offer(message)) {
+                overflowed = true;
+            }
+            listener.run();
+        }
+    }
+
+    /**
+     * Subscribes to the new messages of a session.
+     * @param sessionID id of the session.
+     * @param listener called after messages were buffered or the buffer overflowed, it should
+     *                 hand the work to another thread.
+     * @return the subscription.
+     */
+    public static Subscription subscribe(int sessionID, Runnable listener) {
+        Subscription subscription = new Subscription(sessionID, listener);
+        synchronized (SUBSCRIPTIONS) {
+            SUBSCRIPTIONS.computeIfAbsent(sessionID, id -> new CopyOnWriteArrayList<>()).add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * Publishes a new message to the subscribers of its session once the current unit of work commits.
+     * @param sessionID id of the session.
+     * @param message the message.
+     */
+    static void publish(int sessionID, Message message) {
+        UnitOfWork.afterCommit(() -> {
+            List<Subscription> subscriptions;
+            synchronized (SUBSCRIPTIONS) {
+                subscriptions = SUBSCRIPTIONS.get(sessionID);
+            }
+            if (subscriptions != null) {
+                for (Subscription subscription : subscriptions) {
+                    subscription.offer(message);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the number of sessions and subscriptions that are subscribed.
+     * @return map with the statistics of the feed.
+     */
+    public static Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        synchronized (SUBSCRIPTIONS) {
+            statistics.put("sessions", (long) SUBSCRIPTIONS.size());
+            statistics.put("subscriptions", (long) SUBSCRIPTIONS.values().stream().mapToInt(List::size).sum());
+        }
+        return statistics;
+    }
+}
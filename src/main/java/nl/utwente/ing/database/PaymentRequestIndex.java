@@ -0,0 +1,247 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the payment requests of recently used sessions in memory, so a new transaction finds the
+ * request it fills without loading every payment request and transaction of the session.
+ * The requests that are not filled yet are kept per amount, ordered by due date and then id, so the
+ * open request with the earliest due date after a deposit is found in O(log n).
+ * Payment requests are only changed by units of work that write, and SQLite runs one of those at a
+ * time. The unit of work that uses the index of a session first owns it until it ends, and the index
+ * is dropped if that unit of work is rolled back. A unit of work that finds the index still owned by
+ * another one, which has committed but not finished yet, reads its own copy of the requests from the
+ * database. The cached index then misses its changes, so it is dropped before that unit of work commits.
+ * The index is only used after the first write of a unit of work, so no other unit of work can take the
+ * dropped index in the meantime.
+ */
+public class PaymentRequestIndex {
+    private static final int MAX_SESSIONS = 1024;
+
+    private static final Map<Integer, Requests> CACHE =
+            new LinkedHashMap<Integer, Requests>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Requests> eldest) {
+                    return size() > MAX_SESSIONS && !OWNERS.containsKey(eldest.getKey());
+                }
+            };
+    private static final Map<Integer, Thread> OWNERS = new HashMap<>();
+    // Copies of the index per session for the unit of work of the current thread, when it is owned by another.
+    private static final ThreadLocal<Map<Integer, Requests>> DETACHED = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * A payment request as far as filling it is concerned.
+     */
+    static class Request {
+        final int id;
+        final LocalDateTime dueDate;
+        final double amount;
+        final int numberOfRequests;
+        // Ids of the transactions that filled the request so far.
+        final List<Integer> transactions;
+
+        private Request(int id, LocalDateTime dueDate, double amount, int numberOfRequests,
+                        List<Integer> transactions) {
+            this.id = id;
+            this.dueDate = dueDate;
+            this.amount = amount;
+            this.numberOfRequests = numberOfRequests;
+            this.transactions = transactions;
+        }
+
+        boolean isFilled() {
+            return transactions.size() >= numberOfRequests;
+        }
+    }
+
+    /**
+     * Adds a new payment request.
+     * @param sessionID id of the session.
+     * @param id id of the request.
+     * @param dueDate due date of the request.
+     * @param amount amount of every payment.
+     * @param numberOfRequests number of payments.
+     */
+    static void add(int sessionID, int id, String dueDate, double amount, int numberOfRequests) {
+        Requests requests = acquire(sessionID);
+        synchronized (requests) {
+            requests.add(new Request(id, LocalDateTime.parse(dueDate), amount, numberOfRequests, new ArrayList<>()),
+                    false);
+        }
+    }
+
+    /**
+     * Finds the open payment request with the earliest due date after the given date for an amount.
+     * @param sessionID id of the session.
+     * @param amount amount of the deposit.
+     * @param date date of the deposit.
+     * @return the request, or null if there is none.
+     */
+    static Request findOpen(int sessionID, double amount, LocalDateTime date) {
+        Requests requests = acquire(sessionID);
+        synchronized (requests) {
+            TreeSet<Request> open = requests.open.get(amount);
+            if (open == null) {
+                return null;
+            }
+            return open.higher(new Request(Integer.MAX_VALUE, date, amount, 0, null));
+        }
+    }
+
+    /**
+     * Takes the open payment requests that were due before the given date and have not been
+     * reported as overdue yet. Every request is returned at most once.
+     * @param sessionID id of the session.
+     * @param date the date.
+     * @return List with the requests, earliest due date first.
+     */
+    static List<Request> takeOverdue(int sessionID, LocalDateTime date) {
+        Requests requests = acquire(sessionID);
+        List<Request> overdue = new ArrayList<>();
+        synchronized (requests) {
+            while (!requests.unreported.isEmpty() && requests.unreported.first().dueDate.isBefore(date)) {
+                overdue.add(requests.unreported.pollFirst());
+            }
+        }
+        return overdue;
+    }
+
+    /**
+     * Adds a transaction to an open payment request, the request is closed when it is filled.
+     * @param sessionID id of the session.
+     * @param request the request.
+     * @param transactionID id of the transaction.
+     */
+    static void fill(int sessionID, Request request, int transactionID) {
+        Requests requests = acquire(sessionID);
+        synchronized (requests) {
+            request.transactions.add(transactionID);
+            if (request.isFilled()) {
+                TreeSet<Request> open = requests.open.get(request.amount);
+                if (open != null) {
+                    open.remove(request);
+                }
+                requests.unreported.remove(request);
+            }
+        }
+    }
+
+    private static Requests acquire(int sessionID) {
+        Thread current = Thread.currentThread();
+        synchronized (CACHE) {
+            Thread owner = OWNERS.get(sessionID);
+            if (owner == current) {
+                return CACHE.get(sessionID);
+            }
+            if (owner == null) {
+                Requests requests = CACHE.get(sessionID);
+                if (requests == null) {
+                    requests = load(sessionID);
+                    CACHE.put(sessionID, requests);
+                }
+                OWNERS.put(sessionID, current);
+                UnitOfWork.afterRollback(() -> {
+                    synchronized (CACHE) {
+                        CACHE.remove(sessionID);
+                    }
+                });
+                UnitOfWork.afterCompletion(() -> {
+                    synchronized (CACHE) {
+                        OWNERS.remove(sessionID, current);
+                    }
+                });
+                return requests;
+            }
+        }
+        // Another unit of work has committed its changes but still owns the index.
+        Map<Integer, Requests> detached = DETACHED.get();
+        Requests requests = detached.get(sessionID);
+        if (requests == null) {
+            requests = load(sessionID);
+            detached.put(sessionID, requests);
+            UnitOfWork.beforeCommit(() -> {
+                synchronized (CACHE) {
+                    CACHE.remove(sessionID);
+                }
+            });
+            UnitOfWork.afterCompletion(() -> DETACHED.get().remove(sessionID));
+        }
+        return requests;
+    }
+
+    private static Requests load(int sessionID) {
+        String sql = "SELECT id, due_date, amount, number_of_requests FROM paymentRequests WHERE session_id = ?;";
+        String fills = "SELECT f.payment_request_id, f.transaction_id FROM paymentRequestFills f " +
+                "JOIN paymentRequests p ON p.id = f.payment_request_id " +
+                "WHERE p.session_id = ? ORDER BY f.payment_request_id, f.position;";
+        Requests requests = new Requests();
+        Set<String> reported = new HashSet<>(AlertEngine.getActive(sessionID, AlertEngine.PAYMENT_REQUEST_OVERDUE));
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            Map<Integer, List<Integer>> transactions = new HashMap<>();
+            PreparedStatement pstmt = conn.prepareStatement(fills);
+            pstmt.setInt(1, sessionID);
+            ResultSet resultSet = pstmt.executeQuery();
+            while (resultSet.next()) {
+                transactions.computeIfAbsent(resultSet.getInt(1), id -> new ArrayList<>()).add(resultSet.getInt(2));
+            }
+
+            pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            resultSet = pstmt.executeQuery();
+            while (resultSet.next()) {
+                int id = resultSet.getInt(1);
+                requests.add(new Request(id, LocalDateTime.parse(resultSet.getString(2)), resultSet.getDouble(3),
+                        resultSet.getInt(4), transactions.getOrDefault(id, new ArrayList<>())),
+                        reported.contains(AlertEngine.PAYMENT_REQUEST_OVERDUE + id));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load the payment requests of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static class Requests {
+        private static final Comparator<Request> BY_DUE_DATE =
+                Comparator.comparing((Request request) -> request.dueDate).thenComparingInt(request -> request.id);
+
+        private final Map<Integer, Request> requests = new HashMap<>();
+        // Requests that are not filled yet per amount.
+        private final Map<Double, TreeSet<Request>> open = new HashMap<>();
+        // Requests that are not filled yet and have not been reported as overdue.
+        private final TreeSet<Request> unreported = new TreeSet<>(BY_DUE_DATE);
+
+        private void add(Request request, boolean reported) {
+            // A request added by a unit of work that loaded the index is already in it.
+            if (requests.putIfAbsent(request.id, request) != null) {
+                return;
+            }
+            if (!request.isFilled()) {
+                open.computeIfAbsent(request.amount, amount -> new TreeSet<>(BY_DUE_DATE)).add(request);
+                if (!reported) {
+                    unreported.add(request);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nl.utwente.ing.database;
+
+/**
+ * Snapshot of the utilisation of the connection pool.
+ */
+public class PoolStatistics {
+
+    private final int size;
+    private final int open;
+    private final int inUse;
+    private final int idle;
+    private final int peakInUse;
+    private final long borrows;
+    private final long waits;
+    private final long timeouts;
+
+    public PoolStatistics(int size, int open, int inUse, int idle, int peakInUse,
+                          long borrows, long waits, long timeouts) {
+        this.size = size;
+        this.open = open;
+        this.inUse = inUse;
+        this.idle = idle;
+        this.peakInUse = peakInUse;
+        this.borrows = borrows;
+        this.waits = waits;
+        this.timeouts = timeouts;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getOpen() {
+        return open;
+    }
+
+    public int getInUse() {
+        return inUse;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getPeakInUse() {
+        return peakInUse;
+    }
+
+    public long getBorrows() {
+        return borrows;
+    }
+
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Fraction of the pool that is currently borrowed.
+     * @return utilisation between 0 and 1.
+     */
+    public double getUtilisation() {
+        return size == 0 ? 0 : (double) inUse / size;
+    }
+}
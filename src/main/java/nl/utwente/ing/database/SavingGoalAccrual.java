@@ -0,0 +1,191 @@
+package nl.utwente.ing.database;
+
+import nl.utwente.ing.model.Message;
+import nl.utwente.ing.model.SavingGoal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves money from the balance of a session to its saving goals once per month.
+ * The sessions table keeps the last month for which a session has saved, as year * 12 + month - 1.
+ * Saving only happens when the latest transaction of a session is in a later month, then every goal
+ * saves once for each month that passed, as long as the balance stays above the minimum the goal
+ * requires and the goal is not reached. The number of months a goal saves is computed directly
+ * instead of month by month, and all goals are written in one batch.
+ */
+public class SavingGoalAccrual {
+
+    /**
+     * Lets the goals of a session save for the months that passed up to its latest transaction.
+     * @param sessionID id of the session.
+     */
+    static void accrue(int sessionID) {
+        accrue(sessionID, null);
+    }
+
+    /**
+     * Lets the goals of a session save for the months that passed up to the given date.
+     * The money is taken from the balance of the latest transaction of the session.
+     * @param sessionID id of the session.
+     * @param until the date, or null for the date of the latest transaction.
+     * @throws IllegalStateException if the savings could not be read or stored.
+     */
+    static void accrue(int sessionID, LocalDateTime until) {
+        String sql = "SELECT s.savings_month, t.id, t.date, t.balance FROM sessions s " +
+                "JOIN transactions t ON t.id = (SELECT id FROM transactions WHERE session_id = s.id " +
+                "ORDER BY date DESC, id DESC LIMIT 0, 1) " +
+                "WHERE s.id = ?;";
+        Integer savedMonth = null;
+        int transactionId = 0;
+        LocalDateTime date = null;
+        double balance = 0;
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, sessionID);
+            ResultSet resultSet = pstmt.executeQuery();
+            if (resultSet.next()) {
+                savedMonth = resultSet.getObject(1) == null ? null : resultSet.getInt(1);
+                transactionId = resultSet.getInt(2);
+                date = LocalDateTime.parse(resultSet.getString(3));
+                balance = resultSet.getDouble(4);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the savings month of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if (date == null) {
+            return;
+        }
+
+        LocalDateTime latest = until != null ? until : date;
+        int month = month(latest);
+        if (savedMonth != null && month <= savedMonth) {
+            return;
+        }
+        // The first transaction of a session starts the count, nothing is saved before it.
+        int months = savedMonth == null ? 0 : month - savedMonth;
+
+        List<SavingGoal> savingGoals = months == 0 ? null : DatabaseCommunication.getSavingGoals(sessionID);
+        boolean saved = false;
+        conn = DatabaseCommunication.connect();
+        try {
+            if (savingGoals != null && !savingGoals.isEmpty()) {
+                PreparedStatement pstmt = conn.prepareStatement("UPDATE SavingGoals SET balance = ? WHERE id = ?;");
+                for (SavingGoal search : savingGoals) {
+                    int times = times(search, balance, months);
+                    if (times > 0) {
+                        search.setBalance(search.getBalance() + times * search.getSavePerMonth());
+                        balance -= times * search.getSavePerMonth();
+                        pstmt.setDouble(1, search.getBalance());
+                        pstmt.setInt(2, search.getId());
+                        pstmt.addBatch();
+                        saved = true;
+                    }
+                }
+                if (saved) {
+                    pstmt.executeBatch();
+                    pstmt = conn.prepareStatement("UPDATE transactions SET balance = ? WHERE id = ?;");
+                    pstmt.setDouble(1, balance);
+                    pstmt.setInt(2, transactionId);
+                    pstmt.executeUpdate();
+                }
+            }
+            PreparedStatement pstmt = conn.prepareStatement("UPDATE sessions SET savings_month = ? WHERE id = ?;");
+            pstmt.setInt(1, month);
+            pstmt.setInt(2, sessionID);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            // The unit of work rolls back, so the goals do not save without the month being stored.
+            throw new IllegalStateException("Could not store the savings of session " + sessionID, e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if (savingGoals == null) {
+            return;
+        }
+        for (SavingGoal search : savingGoals) {
+            AlertEngine.update(sessionID, AlertEngine.SAVING_GOAL_REACHED + search.getId(),
+                    search.getGoal() <= search.getBalance(), () -> new Message(IdAllocator.MESSAGES.next(),
+                            "Saving goal " + search.getName() + " reached", latest.toString(), "info"));
+        }
+        if (saved) {
+            BalanceIndex.setBalance(sessionID, transactionId, balance);
+            BalanceCandles.rebuild(sessionID, date);
+        }
+    }
+
+    /**
+     * Computes how many times a goal saves in the given number of months. A month only saves if the
+     * balance before it is at least the minimum balance of the goal and the goal is not reached yet.
+     * @param goal the saving goal.
+     * @param balance balance before the first month.
+     * @param months number of months.
+     * @return the number of months in which the goal saves.
+     */
+    private static int times(SavingGoal goal, double balance, int months) {
+        double save = goal.getSavePerMonth();
+        if (balance < goal.getMinBalanceRequired() || goal.getBalance() >= goal.getGoal()) {
+            return 0;
+        }
+        if (save <= 0) {
+            // Nothing or a negative amount is moved, so neither limit is ever reached.
+            return months;
+        }
+        // Month i (from 0) saves if balance - i * save >= minimum and goal balance + i * save < goal.
+        double byBalance = Math.floor((balance - goal.getMinBalanceRequired()) / save) + 1;
+        double byGoal = Math.ceil((goal.getGoal() - goal.getBalance()) / save);
+        return (int) Math.min(months, Math.min(byBalance, byGoal));
+    }
+
+    /**
+     * Gets the sessions that have transactions and have not saved up to the given date yet.
+     * @param until the date.
+     * @return List with the session ids.
+     */
+    static List<Integer> getSessionsBehind(LocalDateTime until) {
+        String sql = "SELECT id FROM sessions WHERE savings_month < ? ORDER BY id;";
+        List<Integer> sessionIds = new ArrayList<>();
+        Connection conn = DatabaseCommunication.connect();
+        try {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, month(until));
+            ResultSet resultSet = pstmt.executeQuery();
+            while (resultSet.next()) {
+                sessionIds.add(resultSet.getInt(1));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the sessions that have not saved", e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return sessionIds;
+    }
+
+    private static int month(LocalDateTime date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+}
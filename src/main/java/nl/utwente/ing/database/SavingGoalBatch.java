@@ -0,0 +1,132 @@
+package nl.utwente.ing.database;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets the saving goals of every session save at the start of each month, also for sessions that do
+ * not get new transactions. Only the sessions that have not saved for the new month yet are processed.
+ * They are split into chunks of CHUNK_SIZE sessions, and every chunk is written in its own unit of
+ * work on a fork-join pool of "savings.batch.parallelism" threads. SQLite runs one unit of work that
+ * writes at a time, so the pool is kept small: it only bounds how many chunks wait for the database.
+ * A chunk that fails is rolled back, its sessions save with the next transaction or the next run.
+ */
+@Component
+public class SavingGoalBatch {
+    static final int CHUNK_SIZE = 100;
+
+    private final ForkJoinPool pool;
+    private final Map<String, Object> lastRun = new LinkedHashMap<>();
+    private long runs = 0;
+
+    public SavingGoalBatch(@Value("${savings.batch.parallelism:2}") int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(parallelism, 1));
+    }
+
+    /**
+     * Runs the batch at the start of every month, or as configured by "savings.batch.cron".
+     */
+    @Scheduled(cron = "${savings.batch.cron:0 0 0 1 * *}")
+    public void run() {
+        run(LocalDate.now().withDayOfMonth(1).atStartOfDay());
+    }
+
+    /**
+     * Lets every session save up to the given date.
+     * @param until the date, normally the start of the current month.
+     */
+    void run(LocalDateTime until) {
+        long start = System.nanoTime();
+        List<Integer> sessionIds = SavingGoalAccrual.getSessionsBehind(until);
+        Chunk all = new Chunk(sessionIds, 0, sessionIds.size(), until);
+        pool.invoke(all);
+        long duration = (System.nanoTime() - start) / 1000000;
+
+        synchronized (lastRun) {
+            runs++;
+            lastRun.clear();
+            lastRun.put("until", until.toString());
+            lastRun.put("sessions", sessionIds.size());
+            lastRun.put("chunks", all.chunks.get());
+            lastRun.put("failedChunks", all.failed.get());
+            lastRun.put("durationMillis", duration);
+            lastRun.put("sessionsPerSecond", duration == 0 ? sessionIds.size() : sessionIds.size() * 1000 / duration);
+        }
+        System.out.println("Saving goal batch until " + until + ": " + sessionIds.size() + " sessions in " +
+                duration + " ms");
+    }
+
+    /**
+     * Gets the number of runs and the metrics of the last run.
+     * @return map with the statistics of the batch.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        synchronized (lastRun) {
+            statistics.put("runs", runs);
+            statistics.put("parallelism", pool.getParallelism());
+            statistics.put("lastRun", new LinkedHashMap<>(lastRun));
+        }
+        return statistics;
+    }
+
+    @SuppressWarnings("serial")
+    private static class Chunk extends RecursiveAction {
+        private final List<Integer> sessionIds;
+        private final int from;
+        private final int to;
+        private final LocalDateTime until;
+        // Shared by all chunks of a run.
+        private final AtomicInteger chunks;
+        private final AtomicInteger failed;
+
+        private Chunk(List<Integer> sessionIds, int from, int to, LocalDateTime until) {
+            this(sessionIds, from, to, until, new AtomicInteger(), new AtomicInteger());
+        }
+
+        private Chunk(List<Integer> sessionIds, int from, int to, LocalDateTime until,
+                      AtomicInteger chunks, AtomicInteger failed) {
+            this.sessionIds = sessionIds;
+            this.from = from;
+            this.to = to;
+            this.until = until;
+            this.chunks = chunks;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Chunk(sessionIds, from, middle, until, chunks, failed),
+                        new Chunk(sessionIds, middle, to, until, chunks, failed));
+                return;
+            }
+            if (from == to) {
+                return;
+            }
+            chunks.incrementAndGet();
+            UnitOfWork.begin(true);
+            try {
+                for (int i = from; i < to; i++) {
+                    SavingGoalAccrual.accrue(sessionIds.get(i), until);
+                }
+                UnitOfWork.commit();
+            } catch (Exception e) {
+                UnitOfWork.rollback();
+                System.out.println(e.getMessage());
+                failed.incrementAndGet();
+            }
+        }
+    }
+}
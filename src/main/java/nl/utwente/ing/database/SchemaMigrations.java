@@ -0,0 +1,368 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date at startup.
+ * The version of the schema is kept in PRAGMA user_version. Every migration that is newer runs
+ * in its own transaction together with the update of the version, so an existing database.db
+ * is upgraded in place and a failed migration leaves the previous version intact.
+ */
+public class SchemaMigrations {
+
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static class Migration {
+        private final String description;
+        private final Step step;
+
+        private Migration(String description, Step step) {
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    /**
+     * All migrations, migration i brings the schema to version i + 1. Only append to this list.
+     */
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        MIGRATIONS.add(new Migration("create tables", SchemaMigrations::createTables));
+        MIGRATIONS.add(new Migration("index session tables", SchemaMigrations::indexSessionTables));
+        MIGRATIONS.add(new Migration("session ownership on entity tables", SchemaMigrations::addSessionColumns));
+        MIGRATIONS.add(new Migration("balance candles", SchemaMigrations::createBalanceCandles));
+        MIGRATIONS.add(new Migration("payment request fills", SchemaMigrations::createPaymentRequestFills));
+        MIGRATIONS.add(new Migration("alert states", SchemaMigrations::createAlertStates));
+        MIGRATIONS.add(new Migration("unread messages", SchemaMigrations::indexUnreadMessages));
+        MIGRATIONS.add(new Migration("savings month", SchemaMigrations::addSavingsMonth));
+        MIGRATIONS.add(new Migration("statement imports", SchemaMigrations::createImports));
+    }
+
+    /**
+     * Applies all migrations that have not been applied to the database yet.
+     * @throws IllegalStateException if a migration fails.
+     */
+    public static void migrate() {
+        try (Connection conn = ConnectionPool.getInstance().borrow()) {
+            int version = getVersion(conn);
+            for (int i = version; i < MIGRATIONS.size(); i++) {
+                Migration migration = MIGRATIONS.get(i);
+                execute(conn, "BEGIN IMMEDIATE");
+                try {
+                    migration.step.apply(conn);
+                    execute(conn, "PRAGMA user_version = " + (i + 1));
+                    execute(conn, "COMMIT");
+                } catch (SQLException e) {
+                    execute(conn, "ROLLBACK");
+                    throw e;
+                }
+                System.out.println("Applied schema migration " + (i + 1) + ": " + migration.description);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not migrate the database schema", e);
+        }
+    }
+
+    private static int getVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet resultSet = stmt.executeQuery("PRAGMA user_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private static void execute(Connection conn, String... sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String search : sql) {
+                stmt.execute(search);
+            }
+        }
+    }
+
+    /*
+     * -------------------- Migrations --------------------
+     */
+
+    /**
+     * Version 1: the tables as they were generated before versioning, so existing databases match it.
+     */
+    private static void createTables(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE TABLE IF NOT EXISTS categoryRules (" +
+                        "id integer PRIMARY KEY," +
+                        "description text," +
+                        "IBAN text," +
+                        "type text," +
+                        "categoryId text," +
+                        "applyOnHistory boolean" +
+                        ");",
+                "CREATE TABLE IF NOT EXISTS categoryRuleSessions (" +
+                        "session integer," +
+                        "categoryRule integer" +
+                        ");",
+                "CREATE TABLE IF NOT EXISTS transactions (" +
+                        "id integer PRIMARY KEY," +
+                        "date text," +
+                        "amount real," +
+                        "externalIBAN text NOT NULL," +
+                        "type text NOT NULL," +
+                        "description text," +
+                        "categoryID integer," +
+                        "balance real" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS categories (" +
+                        "id integer PRIMARY KEY," +
+                        "name text" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS transactionSessions (" +
+                        "session integer," +
+                        "transactions text" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS categorySessions (" +
+                        "session integer," +
+                        "categories text" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS savingGoals (" +
+                        "id integer PRIMARY KEY," +
+                        "name text NOT NULL," +
+                        "goal real NOT NULL," +
+                        "savePerMonth real NOT NULL," +
+                        "minBalanceRequired real DEFAULT 0," +
+                        "balance real NOT NULL" +
+                        ");",
+                "CREATE TABLE IF NOT EXISTS savingGoalSessions (" +
+                        "session integer NOT NULL," +
+                        "goal_id integer" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS paymentRequests (" +
+                        "id integer PRIMARY KEY, " +
+                        "description text NOT NULL, " +
+                        "due_date text NOT NULL, " +
+                        "amount real NOT NULL, " +
+                        "number_of_requests NOT NULL, " +
+                        "filled boolean DEFAULT false, " +
+                        "transactions integer ARRAY[number_requests]" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS paymentRequestSessions (" +
+                        "session integer, " +
+                        "id integer" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS messages (" +
+                        "id integer PRIMARY KEY, " +
+                        "message text, " +
+                        "date text NOT NULL, " +
+                        "read boolean DEFAULT false, " +
+                        "type text NOT NULL" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS messageSessions (" +
+                        "session integer, " +
+                        "id integer" +
+                        ");");
+    }
+
+    /**
+     * Version 2: composite indexes on the session tables, so looking up the rows of one session
+     * no longer scans the rows of every session, and an index for ordering transactions by date.
+     */
+    private static void indexSessionTables(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE INDEX IF NOT EXISTS transactionSessions_session ON transactionSessions(session, transactions)",
+                "CREATE INDEX IF NOT EXISTS categorySessions_session ON categorySessions(session, categories)",
+                "CREATE INDEX IF NOT EXISTS categoryRuleSessions_session ON categoryRuleSessions(session, categoryRule)",
+                "CREATE INDEX IF NOT EXISTS savingGoalSessions_session ON savingGoalSessions(session, goal_id)",
+                "CREATE INDEX IF NOT EXISTS paymentRequestSessions_session ON paymentRequestSessions(session, id)",
+                "CREATE INDEX IF NOT EXISTS messageSessions_session ON messageSessions(session, id)",
+                "CREATE INDEX IF NOT EXISTS transactions_date ON transactions(date)");
+    }
+
+    /**
+     * Version 3: every entity table gets an indexed integer session_id column, filled from the
+     * text based session tables, and a sessions table lists the sessions that exist.
+     * The session tables are dropped afterwards.
+     */
+    private static void addSessionColumns(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE TABLE IF NOT EXISTS sessions (" +
+                        "id integer PRIMARY KEY" +
+                        ")",
+                "INSERT OR IGNORE INTO sessions(id) " +
+                        "SELECT session FROM transactionSessions WHERE session IS NOT NULL " +
+                        "UNION SELECT session FROM categorySessions WHERE session IS NOT NULL " +
+                        "UNION SELECT session FROM categoryRuleSessions WHERE session IS NOT NULL " +
+                        "UNION SELECT session FROM savingGoalSessions WHERE session IS NOT NULL " +
+                        "UNION SELECT session FROM paymentRequestSessions WHERE session IS NOT NULL " +
+                        "UNION SELECT session FROM messageSessions WHERE session IS NOT NULL");
+
+        moveSessionColumn(conn, "transactions", "transactionSessions", "transactions");
+        moveSessionColumn(conn, "categories", "categorySessions", "categories");
+        moveSessionColumn(conn, "categoryRules", "categoryRuleSessions", "categoryRule");
+        moveSessionColumn(conn, "savingGoals", "savingGoalSessions", "goal_id");
+        moveSessionColumn(conn, "paymentRequests", "paymentRequestSessions", "id");
+        moveSessionColumn(conn, "messages", "messageSessions", "id");
+
+        execute(conn, "CREATE INDEX IF NOT EXISTS transactions_session_date ON transactions(session_id, date)",
+                "DROP INDEX IF EXISTS transactions_date");
+    }
+
+    /**
+     * Adds the session_id column to the given table, copies the owning session of every row from
+     * the session table and drops the session table.
+     * @param table the entity table.
+     * @param sessionTable the session table of the entity.
+     * @param idColumn the column of the session table that holds the id of the entity.
+     */
+    private static void moveSessionColumn(Connection conn, String table, String sessionTable, String idColumn)
+            throws SQLException {
+        // Some id columns of the session tables have text affinity, comparing with the id as text
+        // matches both kinds of columns and can use the index.
+        execute(conn,
+                "ALTER TABLE " + table + " ADD COLUMN session_id integer",
+                "CREATE INDEX IF NOT EXISTS " + sessionTable + "_id ON " + sessionTable + "(" + idColumn + ")",
+                "UPDATE " + table + " SET session_id = " +
+                        "(SELECT s.session FROM " + sessionTable + " s " +
+                        "WHERE s." + idColumn + " = CAST(" + table + ".id AS text) " +
+                        "LIMIT 1)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_session ON " + table + "(session_id, id)",
+                "DROP TABLE " + sessionTable);
+    }
+
+    /**
+     * Version 4: a candle per session, interval and bucket for the balance history, filled from
+     * the transactions that are already stored.
+     */
+    private static void createBalanceCandles(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE TABLE IF NOT EXISTS balanceCandles (" +
+                        "session_id integer NOT NULL, " +
+                        "interval text NOT NULL, " +
+                        "start text NOT NULL, " +
+                        "open real NOT NULL, " +
+                        "close real NOT NULL, " +
+                        "high real NOT NULL, " +
+                        "low real NOT NULL, " +
+                        "volume real NOT NULL, " +
+                        "PRIMARY KEY (session_id, interval, start)" +
+                        ")");
+        BalanceCandles.backfill(conn);
+    }
+
+    /**
+     * Version 5: the transactions that filled a payment request move from the comma separated
+     * transactions column of paymentRequests to one row per fill. The old column is cleared.
+     */
+    private static void createPaymentRequestFills(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE TABLE IF NOT EXISTS paymentRequestFills (" +
+                        "payment_request_id integer NOT NULL, " +
+                        "position integer NOT NULL, " +
+                        "transaction_id integer NOT NULL, " +
+                        "PRIMARY KEY (payment_request_id, position)" +
+                        ")");
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT id, transactions FROM paymentRequests " +
+                     "WHERE transactions IS NOT NULL");
+             PreparedStatement insert = conn.prepareStatement("INSERT INTO paymentRequestFills" +
+                     "(payment_request_id, position, transaction_id) VALUES(?, ?, ?)")) {
+            while (resultSet.next()) {
+                int position = 0;
+                for (String id : resultSet.getString(2).split(",")) {
+                    if (!id.trim().isEmpty()) {
+                        insert.setInt(1, resultSet.getInt(1));
+                        insert.setInt(2, position++);
+                        insert.setInt(3, Integer.parseInt(id.trim()));
+                        insert.addBatch();
+                    }
+                }
+            }
+            insert.executeBatch();
+        }
+        execute(conn, "UPDATE paymentRequests SET transactions = NULL");
+    }
+
+    /**
+     * Version 6: the alerts that are active per session. The alerts for which the old code kept
+     * adding messages start active, so upgrading does not repeat those messages once more. The balance
+     * of a session is the balance of its last transaction by date, like in the history.
+     */
+    private static void createAlertStates(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE TABLE IF NOT EXISTS alertStates (" +
+                        "session_id integer NOT NULL, " +
+                        "alert text NOT NULL, " +
+                        "PRIMARY KEY (session_id, alert)" +
+                        ")",
+                "INSERT OR IGNORE INTO alertStates(session_id, alert) " +
+                        "SELECT s.session_id, '" + AlertEngine.BALANCE_NEGATIVE + "' " +
+                        "FROM (SELECT DISTINCT session_id FROM transactions WHERE session_id IS NOT NULL) s " +
+                        "WHERE (SELECT balance FROM transactions WHERE session_id = s.session_id " +
+                        "ORDER BY date DESC, id DESC LIMIT 1) < 0",
+                "INSERT OR IGNORE INTO alertStates(session_id, alert) " +
+                        "SELECT p.session_id, '" + AlertEngine.PAYMENT_REQUEST_OVERDUE + "' || p.id FROM paymentRequests p " +
+                        "WHERE p.session_id IS NOT NULL " +
+                        "AND p.due_date < (SELECT max(date) FROM transactions WHERE session_id = p.session_id)",
+                "INSERT OR IGNORE INTO alertStates(session_id, alert) " +
+                        "SELECT session_id, '" + AlertEngine.SAVING_GOAL_REACHED + "' || id FROM savingGoals " +
+                        "WHERE session_id IS NOT NULL AND goal <= balance");
+    }
+
+    /**
+     * Version 7: an index to page through the unread messages of a session, and a counter of the
+     * unread messages per session, filled from the stored messages.
+     */
+    private static void indexUnreadMessages(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE INDEX IF NOT EXISTS messages_session_read ON messages(session_id, read, id)",
+                "ALTER TABLE sessions ADD COLUMN unread_messages integer NOT NULL DEFAULT 0",
+                "UPDATE sessions SET unread_messages = " +
+                        "(SELECT count(*) FROM messages WHERE session_id = sessions.id AND read = 0)");
+    }
+
+    /**
+     * Version 8: the last month for which the saving goals of a session have saved, as
+     * year * 12 + month - 1. Goals used to save up to the month of the latest transaction.
+     */
+    private static void addSavingsMonth(Connection conn) throws SQLException {
+        execute(conn,
+                "ALTER TABLE sessions ADD COLUMN savings_month integer",
+                "UPDATE sessions SET savings_month = " +
+                        "(SELECT CAST(substr(max(date), 1, 4) AS integer) * 12 + " +
+                        "CAST(substr(max(date), 6, 2) AS integer) - 1 " +
+                        "FROM transactions WHERE session_id = sessions.id)");
+    }
+
+    /**
+     * Version 9: the progress of every statement import, and the rows that were imported per
+     * session, so a row that is imported twice is recognized by its fingerprint.
+     */
+    private static void createImports(Connection conn) throws SQLException {
+        execute(conn,
+                "CREATE TABLE IF NOT EXISTS imports (" +
+                        "id integer PRIMARY KEY, " +
+                        "session_id integer NOT NULL, " +
+                        "format text NOT NULL, " +
+                        "status text NOT NULL, " +
+                        "rows_read integer NOT NULL DEFAULT 0, " +
+                        "imported integer NOT NULL DEFAULT 0, " +
+                        "duplicates integer NOT NULL DEFAULT 0, " +
+                        "invalid integer NOT NULL DEFAULT 0, " +
+                        "started text NOT NULL, " +
+                        "duration_millis integer NOT NULL DEFAULT 0" +
+                        ")",
+                "CREATE INDEX IF NOT EXISTS imports_session ON imports(session_id, id)",
+                "CREATE TABLE IF NOT EXISTS importedTransactions (" +
+                        "session_id integer NOT NULL, " +
+                        "fingerprint text NOT NULL, " +
+                        "transaction_id integer NOT NULL, " +
+                        "PRIMARY KEY (session_id, fingerprint)" +
+                        ")");
+    }
+}
@@ -0,0 +1,77 @@
+package nl.utwente.ing.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the ids of all sessions in memory, so checking a session id does not need the database.
+ * The registry is loaded once from the sessions table, new sessions are added when the unit of
+ * work that created them is committed.
+ */
+public class SessionRegistry {
+    private static final Set<Integer> SESSIONS = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static volatile boolean loaded = false;
+
+    /**
+     * Loads all sessions from the database, should be called once at startup after the schema is migrated.
+     */
+    public static synchronized void load() {
+        if (!loaded) {
+            SESSIONS.addAll(DatabaseCommunication.getSessionIds());
+            loaded = true;
+        }
+    }
+
+    /**
+     * Creates new sessions in the database and adds them to the registry once they are committed.
+     * @param count number of sessions.
+     * @return the ids of the new sessions.
+     */
+    public static List<Integer> create(int count) {
+        int first = IdAllocator.SESSIONS.next(count);
+        List<Integer> sessionIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sessionIds.add(first + i);
+        }
+        // A failed insert throws, so the unit of work rolls back and the sessions are never registered.
+        DatabaseCommunication.addSessions(first, count);
+        UnitOfWork.afterCommit(() -> SESSIONS.addAll(sessionIds));
+        return sessionIds;
+    }
+
+    /**
+     * Checks if the sessionID is valid or not.
+     * @param sessionID id of the session.
+     * @return true if the session exists, false otherwise.
+     */
+    public static boolean isValid(int sessionID) {
+        if (!loaded) {
+            load();
+        }
+        if (SESSIONS.contains(sessionID)) {
+            HITS.incrementAndGet();
+            return true;
+        }
+        MISSES.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets the number of sessions and how many checks found a valid or an invalid session.
+     * @return map with the size, hits and misses of the registry.
+     */
+    public static Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("size", (long) SESSIONS.size());
+        statistics.put("hits", HITS.get());
+        statistics.put("misses", MISSES.get());
+        return statistics;
+    }
+}
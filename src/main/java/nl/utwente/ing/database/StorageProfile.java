@@ -0,0 +1,108 @@
+package nl.utwente.ing.database;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQLite storage settings of a deployment, read from the "storage.*" properties.
+ * The settings are applied as PRAGMAs on every pooled connection. Until Spring has started,
+ * the connection pool uses the defaults below.
+ */
+@Component
+@ConfigurationProperties(prefix = "storage")
+public class StorageProfile {
+    private static final List<String> JOURNAL_MODES = Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final List<String> SYNCHRONOUS_LEVELS = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+
+    private String journalMode = "WAL";
+    private String synchronous = "NORMAL";
+    private int cacheSize = -16000;
+    private long mmapSize = 268435456;
+    private int busyTimeout = 5000;
+    private int poolSize = 8;
+
+    /**
+     * Reconfigures the connection pool once Spring has bound the properties.
+     */
+    @PostConstruct
+    public void apply() {
+        ConnectionPool.configure(this);
+    }
+
+    /**
+     * Gets the PRAGMAs that have to be executed on every new connection.
+     * @return list of PRAGMA statements.
+     */
+    public List<String> getPragmas() {
+        return Arrays.asList(
+                "PRAGMA journal_mode = " + journalMode,
+                "PRAGMA synchronous = " + synchronous,
+                "PRAGMA cache_size = " + cacheSize,
+                "PRAGMA mmap_size = " + mmapSize,
+                "PRAGMA busy_timeout = " + busyTimeout,
+                "PRAGMA temp_store = MEMORY");
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public void setJournalMode(String journalMode) {
+        String mode = journalMode.toUpperCase();
+        if (!JOURNAL_MODES.contains(mode)) {
+            throw new IllegalArgumentException("Unknown journal mode " + journalMode);
+        }
+        this.journalMode = mode;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public void setSynchronous(String synchronous) {
+        String level = synchronous.toUpperCase();
+        if (!SYNCHRONOUS_LEVELS.contains(level)) {
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        }
+        this.synchronous = level;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    public void setMmapSize(long mmapSize) {
+        this.mmapSize = mmapSize;
+    }
+
+    public int getBusyTimeout() {
+        return busyTimeout;
+    }
+
+    public void setBusyTimeout(int busyTimeout) {
+        this.busyTimeout = busyTimeout;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("The pool size has to be positive");
+        }
+        this.poolSize = poolSize;
+    }
+}
@@ -0,0 +1,226 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups all the database calls made by one thread, for example during one HTTP request.
+ * The calls share a single pooled connection. A unit of work that writes also runs in one
+ * SQL transaction, which is committed or rolled back once at the end.
+ */
+public class UnitOfWork {
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final boolean write;
+    private final List<Runnable> beforeCommit = new ArrayList<>();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private final List<Runnable> afterCompletion = new ArrayList<>();
+    private final List<Runnable> afterRollback = new ArrayList<>();
+    private Connection connection;
+
+    private UnitOfWork(boolean write) {
+        this.write = write;
+    }
+
+    /**
+     * Starts a unit of work for the current thread.
+     * @param write true if the unit of work changes data and has to run in a transaction.
+     */
+    public static void begin(boolean write) {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A unit of work is already active on this thread");
+        }
+        CURRENT.set(new UnitOfWork(write));
+    }
+
+    /**
+     * Checks if the current thread has an active unit of work.
+     * @return true if there is an active unit of work, false otherwise.
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Commits the changes of the current unit of work and returns its connection to the pool.
+     * @throws SQLException if the transaction could not be committed, it is rolled back in that case.
+     */
+    public static void commit() throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null) {
+            try {
+                // An action may register more actions, those run as well.
+                for (int i = 0; i < unit.beforeCommit.size(); i++) {
+                    unit.beforeCommit.get(i).run();
+                }
+            } catch (RuntimeException e) {
+                rollback();
+                throw e;
+            }
+        }
+        CURRENT.remove();
+        if (unit != null) {
+            try {
+                unit.end(true);
+            } catch (SQLException e) {
+                run(unit.afterRollback);
+                throw e;
+            } finally {
+                run(unit.afterCompletion);
+            }
+            run(unit.afterCommit);
+        }
+    }
+
+    /**
+     * Commits the changes of the current unit of work so far and continues in a new unit of work
+     * of the same kind, so a long running write is stored in parts. Without an active unit of
+     * work nothing happens.
+     * @throws SQLException if the transaction could not be committed, no unit of work is active then.
+     */
+    public static void checkpoint() throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return;
+        }
+        commit();
+        begin(unit.write);
+    }
+
+    /**
+     * Rolls back the changes of the current unit of work and returns its connection to the pool.
+     */
+    public static void rollback() {
+        UnitOfWork unit = CURRENT.get();
+        CURRENT.remove();
+        if (unit != null) {
+            try {
+                unit.end(false);
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            } finally {
+                run(unit.afterRollback);
+                run(unit.afterCompletion);
+            }
+        }
+    }
+
+    /**
+     * Runs the given action just before the current unit of work is committed, still inside its
+     * transaction. Without an active unit of work the action runs immediately.
+     * @param action the action, for example writing changes that were collected during the unit of work.
+     */
+    public static void beforeCommit(Runnable action) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            action.run();
+        } else {
+            unit.beforeCommit.add(action);
+        }
+    }
+
+    /**
+     * Runs the given action once the current unit of work is committed, it is dropped when the
+     * unit of work is rolled back. Without an active unit of work the action runs immediately.
+     * @param action the action, for example an update of an in-memory structure.
+     */
+    public static void afterCommit(Runnable action) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            action.run();
+        } else {
+            unit.afterCommit.add(action);
+        }
+    }
+
+    /**
+     * Runs the given action once the current unit of work has ended, whether it was committed or
+     * rolled back. Without an active unit of work the action runs immediately.
+     * @param action the action, for example an invalidation of a cache.
+     */
+    public static void afterCompletion(Runnable action) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            action.run();
+        } else {
+            unit.afterCompletion.add(action);
+        }
+    }
+
+    /**
+     * Runs the given action when the current unit of work is rolled back, before the actions that
+     * run after completion. Without an active unit of work nothing can be rolled back, so the
+     * action never runs.
+     * @param action the action, for example dropping an in-memory structure that was changed.
+     */
+    public static void afterRollback(Runnable action) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null) {
+            unit.afterRollback.add(action);
+        }
+    }
+
+    /**
+     * Gets the connection of the current unit of work, borrowing it on first use.
+     * Closing the returned connection only closes its statements, the connection itself
+     * stays with the unit of work until it ends.
+     * @return Connection object.
+     */
+    static Connection connection() throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            throw new IllegalStateException("No unit of work is active on this thread");
+        }
+        if (unit.connection == null) {
+            Connection conn = ConnectionPool.getInstance().borrow();
+            if (unit.write) {
+                try {
+                    execute(conn, "BEGIN IMMEDIATE");
+                } catch (SQLException e) {
+                    conn.close();
+                    throw e;
+                }
+            }
+            unit.connection = conn;
+        }
+        return ConnectionHandle.wrap(unit.connection, () -> {});
+    }
+
+    private void end(boolean commit) throws SQLException {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (write) {
+                if (commit) {
+                    try {
+                        execute(connection, "COMMIT");
+                    } catch (SQLException e) {
+                        execute(connection, "ROLLBACK");
+                        throw e;
+                    }
+                } else {
+                    execute(connection, "ROLLBACK");
+                }
+            }
+        } finally {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    private static void run(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package nl.utwente.ing.imports;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reads a statement in the CAMT.053 XML format with a streaming parser, every entry (Ntry) is a row.
+ * The entry gives the amount, CRDT or DBIT for a deposit or withdrawal, the booking date and the
+ * reference of the bank. The IBAN of the other party and the description come from the first
+ * transaction details of the entry. DTDs and external entities are not read.
+ */
+class Camt053StatementReader implements StatementReader {
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final InputStream in;
+    private final XMLStreamReader xml;
+    // The elements inside the current entry that enclose the current position.
+    private final Deque<String> path = new ArrayDeque<>();
+    private Entry entry;
+    private boolean started = false;
+
+    Camt053StatementReader(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            this.xml = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new StatementFormatException("The file is not XML", e);
+        }
+    }
+
+    @Override
+    public StatementRow next() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if (!started) {
+                        if (!"Document".equals(name)) {
+                            throw new StatementFormatException("The file is not a CAMT.053 document");
+                        }
+                        started = true;
+                    } else if ("Ntry".equals(name)) {
+                        entry = new Entry();
+                        path.clear();
+                    } else if (entry != null) {
+                        start(name);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && entry != null) {
+                    if (path.isEmpty()) {
+                        StatementRow row = entry.toRow();
+                        entry = null;
+                        return row;
+                    }
+                    path.pop();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new StatementFormatException("The file is not valid XML: " + e.getMessage(), e);
+        }
+    }
+
+    private void start(String name) throws XMLStreamException {
+        String parent = path.isEmpty() ? "Ntry" : path.peek();
+        switch (name) {
+            case "Amt":
+            case "CdtDbtInd":
+            case "AcctSvcrRef":
+                String value = xml.getElementText().trim();
+                if ("Ntry".equals(parent)) {
+                    if ("Amt".equals(name)) {
+                        entry.amount = value;
+                    } else if ("CdtDbtInd".equals(name)) {
+                        entry.indicator = value;
+                    } else {
+                        entry.reference = value;
+                    }
+                } else if ("AcctSvcrRef".equals(name) && "Refs".equals(parent) && entry.transactionReference == null) {
+                    entry.transactionReference = value;
+                }
+                break;
+            case "Dt":
+            case "DtTm":
+                value = xml.getElementText().trim();
+                if ("BookgDt".equals(parent)) {
+                    entry.bookingDate = value;
+                } else if ("ValDt".equals(parent)) {
+                    entry.valueDate = value;
+                }
+                break;
+            case "IBAN":
+                value = xml.getElementText().trim();
+                if (path.contains("DbtrAcct") && entry.debtorIBAN == null) {
+                    entry.debtorIBAN = value;
+                } else if (path.contains("CdtrAcct") && entry.creditorIBAN == null) {
+                    entry.creditorIBAN = value;
+                }
+                break;
+            case "Ustrd":
+                value = xml.getElementText().trim();
+                entry.description = entry.description == null ? value : entry.description + " " + value;
+                break;
+            case "AddtlNtryInf":
+                entry.additionalInformation = xml.getElementText().trim();
+                break;
+            default:
+                path.push(name);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // The stream itself is closed below.
+        }
+        in.close();
+    }
+
+    private static class Entry {
+        private String amount;
+        private String indicator;
+        private String bookingDate;
+        private String valueDate;
+        private String reference;
+        private String transactionReference;
+        private String debtorIBAN;
+        private String creditorIBAN;
+        private String description;
+        private String additionalInformation;
+
+        private StatementRow toRow() {
+            boolean credit = "CRDT".equals(indicator);
+            String type = credit ? "deposit" : "DBIT".equals(indicator) ? "withdrawal" : indicator;
+            String date = bookingDate != null ? bookingDate : valueDate;
+            String text = description != null ? description : additionalInformation != null ? additionalInformation : "";
+            return new StatementRow(date, amount, credit ? debtorIBAN : creditorIBAN, type, text,
+                    reference != null ? reference : transactionReference);
+        }
+    }
+}
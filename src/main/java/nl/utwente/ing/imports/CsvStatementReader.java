@@ -0,0 +1,147 @@
+package nl.utwente.ing.imports;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads a statement in CSV format. The first line names the columns: date, amount, externalIBAN and
+ * description are required, type and reference are optional. The columns are separated by commas,
+ * semicolons or tabs, whichever the first line uses most. Fields may be quoted, with "" for a quote.
+ * Without a type column the sign of the amount tells if a row is a deposit or a withdrawal.
+ */
+class CsvStatementReader implements StatementReader {
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+    private static final String[] REQUIRED = {"date", "amount", "externaliban", "description"};
+
+    private final BufferedReader reader;
+    private final char separator;
+    private final Map<String, Integer> columns = new HashMap<>();
+
+    CsvStatementReader(Reader in) throws IOException {
+        this.reader = new BufferedReader(in);
+        reader.mark(MAX_RECORD_LENGTH);
+        String header = reader.readLine();
+        if (header == null) {
+            throw new StatementFormatException("The file has no header line");
+        }
+        reader.reset();
+        if (header.startsWith("\uFEFF")) {
+            reader.skip(1);
+            header = header.substring(1);
+        }
+        this.separator = separator(header);
+
+        List<String> names = readRecord();
+        for (int i = 0; i < names.size(); i++) {
+            columns.putIfAbsent(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String name : REQUIRED) {
+            if (!columns.containsKey(name)) {
+                throw new StatementFormatException("The header has no column " + name);
+            }
+        }
+    }
+
+    private static char separator(String header) {
+        char best = ',';
+        long bestCount = 0;
+        for (char candidate : new char[] {',', ';', '\t'}) {
+            long count = header.chars().filter(c -> c == candidate).count();
+            if (count > bestCount) {
+                best = candidate;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public StatementRow next() throws IOException {
+        List<String> record;
+        do {
+            record = readRecord();
+            if (record == null) {
+                return null;
+            }
+        } while (record.size() == 1 && record.get(0).trim().isEmpty());
+
+        String amount = field(record, "amount");
+        String type = field(record, "type");
+        if (!columns.containsKey("type") && amount != null) {
+            type = amount.startsWith("-") ? "withdrawal" : "deposit";
+            if (amount.startsWith("-") || amount.startsWith("+")) {
+                amount = amount.substring(1);
+            }
+        }
+        return new StatementRow(field(record, "date"), amount, field(record, "externaliban"), type,
+                field(record, "description"), field(record, "reference"));
+    }
+
+    private String field(List<String> record, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= record.size()) {
+            return null;
+        }
+        String value = record.get(index).trim();
+        return value.isEmpty() && !"description".equals(column) ? null : value;
+    }
+
+    /**
+     * Reads the fields of the next record, a quoted field may contain separators and line breaks.
+     * @return the fields, or null at the end of the file.
+     */
+    private List<String> readRecord() throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int length = 0;
+        while (c != -1) {
+            if (++length > MAX_RECORD_LENGTH) {
+                throw new StatementFormatException("A record is longer than " + MAX_RECORD_LENGTH + " characters");
+            }
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        if (quoted) {
+            throw new StatementFormatException("A quoted field is not closed");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,19 @@
+package nl.utwente.ing.imports;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a statement file can not be read any further because it is not in the expected
+ * format. A single row with wrong values is skipped as invalid instead.
+ */
+@SuppressWarnings("serial")
+public class StatementFormatException extends IOException {
+
+    public StatementFormatException(String message) {
+        super(message);
+    }
+
+    public StatementFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
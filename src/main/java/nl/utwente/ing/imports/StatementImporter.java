@@ -0,0 +1,171 @@
+package nl.utwente.ing.imports;
+
+import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.IdAllocator;
+import nl.utwente.ing.database.UnitOfWork;
+import nl.utwente.ing.model.StatementImport;
+import nl.utwente.ing.model.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports a bank statement file into a session while it is read. Every row is checked like a posted
+ * transaction, rows that are not valid are counted and skipped. Every CHUNK_SIZE rows the new
+ * transactions are added in one batch, together with the progress of the import, and the unit of
+ * work is committed, so only one chunk is held in memory and a failed import keeps the chunks before it.
+ * <p>
+ * A row that was imported before into the session is a duplicate and is skipped. Rows are recognized by
+ * the reference the bank gave them, or else by their values and how many equal rows came before it in
+ * the file. Resuming an import skips the rows it has committed already, the rows are still read to count
+ * equal rows the same way.
+ */
+public class StatementImporter {
+    static final int CHUNK_SIZE = 1000;
+
+    private final StatementImport statementImport;
+    private final int sessionID;
+    private final long durationBefore;
+    private final long start = System.nanoTime();
+    private final Map<String, Transaction> chunk = new LinkedHashMap<>();
+    private int chunkDuplicates = 0;
+    private int chunkInvalid = 0;
+    private String lastDate = null;
+
+    // Number of equal rows read so far in the file, by the digest of their values. It holds an entry for
+    // every distinct row without a reference, about 150 bytes each, whatever order the rows are in.
+    private final Map<String, Integer> occurrences = new HashMap<>();
+
+    private StatementImporter(StatementImport statementImport, int sessionID) {
+        this.statementImport = statementImport;
+        this.sessionID = sessionID;
+        this.durationBefore = statementImport.getDurationMillis();
+    }
+
+    /**
+     * Runs an import, or resumes it after its last committed row. The given import is updated with
+     * the progress and is completed when the whole file is read.
+     * @param statementImport the import, it has to be stored already.
+     * @param in the statement file.
+     * @param sessionID id of the session.
+     * @throws StatementFormatException if the file is not in the format of the import.
+     * @throws SQLException if a chunk could not be stored or committed.
+     */
+    public static void run(StatementImport statementImport, InputStream in, int sessionID)
+            throws IOException, SQLException {
+        new StatementImporter(statementImport, sessionID).run(in);
+    }
+
+    private void run(InputStream in) throws IOException, SQLException {
+        int committed = statementImport.getRowsRead();
+        int rows = 0;
+        try (StatementReader reader = StatementReader.open(statementImport.getFormat(), in)) {
+            StatementRow row;
+            while ((row = reader.next()) != null) {
+                rows++;
+                Transaction t = toTransaction(row);
+                String fingerprint = t == null ? null : fingerprint(row.getReference(), t);
+                if (rows <= committed) {
+                    continue;
+                }
+                if (t == null) {
+                    chunkInvalid++;
+                } else if (chunk.putIfAbsent(fingerprint, t) != null) {
+                    chunkDuplicates++;
+                } else {
+                    t.setId(IdAllocator.TRANSACTIONS.next());
+                }
+                if (rows - statementImport.getRowsRead() == CHUNK_SIZE) {
+                    commit(rows);
+                }
+            }
+        }
+        if (rows > statementImport.getRowsRead()) {
+            commit(rows);
+        }
+
+        if (lastDate != null) {
+            DatabaseCommunication.updateSavingGoals(sessionID);
+            DatabaseCommunication.checkBalance(sessionID, lastDate);
+        }
+        statementImport.setStatus(StatementImport.COMPLETED);
+        statementImport.setDurationMillis(durationBefore + (System.nanoTime() - start) / 1000000);
+        DatabaseCommunication.updateImport(statementImport);
+    }
+
+    private void commit(int rows) throws SQLException {
+        List<Transaction> added = DatabaseCommunication.addImportedTransactions(chunk, sessionID);
+        DatabaseCommunication.addTransactions(added, sessionID);
+        if (!added.isEmpty()) {
+            lastDate = added.get(added.size() - 1).getDate().toString();
+        }
+
+        statementImport.setRowsRead(rows);
+        statementImport.setImported(statementImport.getImported() + added.size());
+        statementImport.setDuplicates(statementImport.getDuplicates() + chunkDuplicates + chunk.size() - added.size());
+        statementImport.setInvalid(statementImport.getInvalid() + chunkInvalid);
+        statementImport.setDurationMillis(durationBefore + (System.nanoTime() - start) / 1000000);
+        DatabaseCommunication.updateImport(statementImport);
+        UnitOfWork.checkpoint();
+
+        chunk.clear();
+        chunkDuplicates = 0;
+        chunkInvalid = 0;
+    }
+
+    /**
+     * Turns a row into a transaction without an id.
+     * @param row the row.
+     * @return the transaction, or null if the row is not a valid transaction.
+     */
+    private static Transaction toTransaction(StatementRow row) {
+        if (row.getDate() == null || row.getAmount() == null || row.getType() == null) {
+            return null;
+        }
+        try {
+            String date = row.getDate().length() == 10 ? row.getDate() + "T00:00:00" : row.getDate();
+            date = LocalDateTime.from(DateTimeFormatter.ISO_DATE_TIME.parse(date)).toString();
+            double amount = Double.parseDouble(row.getAmount());
+            if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+                return null;
+            }
+            Transaction transaction = new Transaction(0, date, amount, row.getExternalIBAN(), row.getType(),
+                    row.getDescription());
+            return transaction.validTransaction() ? transaction : null;
+        } catch (DateTimeException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private String fingerprint(String reference, Transaction t) {
+        if (reference != null) {
+            return "ref:" + reference;
+        }
+        String values = String.join("\u0000", t.getDate().toString(), Double.toString(t.getAmount()),
+                t.getExternalIBAN(), t.getType().toString(), t.getDescription());
+        int occurrence = occurrences.merge(sha1(values), 1, Integer::sum);
+        return "row:" + sha1(values + "\u0000" + occurrence);
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%040x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package nl.utwente.ing.imports;
+
+import nl.utwente.ing.model.StatementFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the rows of a bank statement one at a time, so a file of any size is read with
+ * a bounded amount of memory.
+ */
+public interface StatementReader extends Closeable {
+
+    /**
+     * Reads the next row.
+     * @return the row, or null at the end of the file.
+     * @throws StatementFormatException if the file is not a statement of the expected format.
+     */
+    StatementRow next() throws IOException;
+
+    /**
+     * Opens a reader for a statement file.
+     * @param format the format of the file.
+     * @param in the file, CSV files are read as UTF-8 and XML files in the encoding they declare.
+     * @return the reader.
+     */
+    static StatementReader open(StatementFormat format, InputStream in) throws IOException {
+        switch (format) {
+            case csv:
+                return new CsvStatementReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            case camt053:
+                return new Camt053StatementReader(in);
+            default:
+                throw new IllegalArgumentException("Unknown statement format " + format);
+        }
+    }
+}
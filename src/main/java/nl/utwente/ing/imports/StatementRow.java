@@ -0,0 +1,50 @@
+package nl.utwente.ing.imports;
+
+/**
+ * One row of a bank statement as it is read from the file, nothing is parsed or validated yet.
+ */
+public class StatementRow {
+    private final String date;
+    private final String amount;
+    private final String externalIBAN;
+    private final String type;
+    private final String description;
+    private final String reference;
+
+    public StatementRow(String date, String amount, String externalIBAN, String type, String description,
+                        String reference) {
+        this.date = date;
+        this.amount = amount;
+        this.externalIBAN = externalIBAN;
+        this.type = type;
+        this.description = description;
+        this.reference = reference;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getAmount() {
+        return amount;
+    }
+
+    public String getExternalIBAN() {
+        return externalIBAN;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the reference the bank gave the row, or null if the file has none.
+     */
+    public String getReference() {
+        return reference;
+    }
+}
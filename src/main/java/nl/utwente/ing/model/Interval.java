@@ -1,5 +1,52 @@
 package nl.utwente.ing.model;
 
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
 public enum Interval {
     hour, day, week, month, year;
+
+    /**
+     * Gets the start of the interval that contains the given date.
+     * Weeks start on Monday.
+     * @param date the date.
+     * @return start of the interval.
+     */
+    public LocalDateTime truncate(LocalDateTime date) {
+        switch (this) {
+            case hour:
+                return date.truncatedTo(ChronoUnit.HOURS);
+            case day:
+                return date.truncatedTo(ChronoUnit.DAYS);
+            case week:
+                return date.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case month:
+                return date.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            default:
+                return date.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+        }
+    }
+
+    /**
+     * Adds a number of intervals to the given date.
+     * @param date the date.
+     * @param amount number of intervals, may be negative.
+     * @return the moved date.
+     */
+    public LocalDateTime plus(LocalDateTime date, long amount) {
+        switch (this) {
+            case hour:
+                return date.plusHours(amount);
+            case day:
+                return date.plusDays(amount);
+            case week:
+                return date.plusWeeks(amount);
+            case month:
+                return date.plusMonths(amount);
+            default:
+                return date.plusYears(amount);
+        }
+    }
 }
@@ -0,0 +1,7 @@
+package nl.utwente.ing.model;
+
+public enum StatementFormat {
+
+    csv, camt053;
+
+}
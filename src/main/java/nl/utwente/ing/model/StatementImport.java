@@ -0,0 +1,91 @@
+package nl.utwente.ing.model;
+
+/**
+ * The progress of importing one bank statement file. The counters only include the rows that
+ * are committed, an import that is not completed can be resumed after its last committed row.
+ */
+public class StatementImport {
+    public static final String RUNNING = "running";
+    public static final String COMPLETED = "completed";
+
+    private int id;
+    private StatementFormat format;
+    private String status;
+    private int rowsRead;
+    private int imported;
+    private int duplicates;
+    private int invalid;
+    private String started;
+    private long durationMillis;
+
+    public StatementImport(int id, String format, String status, String started) {
+        this.id = id;
+        this.format = StatementFormat.valueOf(format);
+        this.status = status;
+        this.started = started;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public StatementFormat getFormat() {
+        return format;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    public void setRowsRead(int rowsRead) {
+        this.rowsRead = rowsRead;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public void setImported(int imported) {
+        this.imported = imported;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(int duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    public void setInvalid(int invalid) {
+        this.invalid = invalid;
+    }
+
+    public String getStarted() {
+        return started;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public long getRowsPerSecond() {
+        return durationMillis == 0 ? rowsRead : rowsRead * 1000L / durationMillis;
+    }
+}